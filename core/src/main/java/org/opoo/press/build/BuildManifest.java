@@ -0,0 +1,285 @@
+/*
+ * Copyright 2013 Alex Lin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opoo.press.build;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Binary manifest of files: size, last modified time and a content hash of
+ * each file, keyed by absolute path.
+ * <p>
+ * A file is changed only if its content hash changed, the content is hashed
+ * only when the size or the last modified time differs from the manifest, so
+ * touched but unchanged files (e.g. by <code>git checkout</code>) do not
+ * trigger a build. Files recorded without a previous manifest are not hashed,
+ * a touched file without hash is taken as changed.
+ * <p>
+ * File format: magic, version, entry count, then for each entry the UTF-8
+ * path (length prefixed), size, last modified time and hash.
+ * <p>
+ * The manifest is thread safe, files can be recorded by build tasks in parallel.
+ *
+ * @author Alex Lin
+ */
+public class BuildManifest {
+    private static final Logger log = LoggerFactory.getLogger(BuildManifest.class);
+    private static final int MAGIC = 0x4F50424D;
+    private static final int VERSION = 1;
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+    //hash of the files recorded without a previous manifest
+    private static final long NO_HASH = 0L;
+
+    private final Map<String, Entry> entries;
+
+    public BuildManifest() {
+        this(new ConcurrentHashMap<String, Entry>());
+    }
+
+    private BuildManifest(Map<String, Entry> entries) {
+        this.entries = entries;
+    }
+
+    /**
+     * Load manifest by mapping the file into memory.
+     *
+     * @param file manifest file
+     * @return the manifest, or null if file not exists or not valid
+     */
+    public static BuildManifest load(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                log.warn("Invalid build manifest: {}", file);
+                return null;
+            }
+
+            int count = buffer.getInt();
+            Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>(count * 4 / 3 + 1);
+            byte[] bytes = new byte[256];
+            for (int i = 0; i < count; i++) {
+                int length = buffer.getInt();
+                if (length > bytes.length) {
+                    bytes = new byte[length];
+                }
+                buffer.get(bytes, 0, length);
+                String path = new String(bytes, 0, length, Charsets.UTF_8);
+                entries.put(path, new Entry(buffer.getLong(), buffer.getLong(), buffer.getLong()));
+            }
+            log.debug("Load build manifest: {} entries.", count);
+            return new BuildManifest(entries);
+        } catch (Exception e) {
+            log.warn("Read build manifest failed: " + file, e);
+            return null;
+        } finally {
+            IOUtils.closeQuietly(raf);
+        }
+    }
+
+    public void save(File file) {
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> en : entries.entrySet()) {
+                byte[] path = en.getKey().getBytes(Charsets.UTF_8);
+                Entry entry = en.getValue();
+                out.writeInt(path.length);
+                out.write(path);
+                out.writeLong(entry.length);
+                out.writeLong(entry.lastModified);
+                out.writeLong(entry.hash);
+            }
+            out.flush();
+        } catch (IOException e) {
+            throw new RuntimeException("Write build manifest failed: " + file, e);
+        } finally {
+            IOUtils.closeQuietly(out);
+        }
+
+        //the old file may still be mapped (Windows)
+        if (!tmp.renameTo(file)) {
+            try {
+                FileUtils.copyFile(tmp, file);
+                FileUtils.deleteQuietly(tmp);
+            } catch (IOException e) {
+                throw new RuntimeException("Write build manifest failed: " + file, e);
+            }
+        }
+    }
+
+    /**
+     * Whether the file changed since this manifest saved.
+     *
+     * @param file the file to check
+     * @param current the manifest to record current state of the file, may be null
+     * @return true if the file is new or its content changed
+     */
+    public boolean isChanged(File file, BuildManifest current) {
+        String path = file.getAbsolutePath();
+        long length = file.length();
+        long lastModified = file.lastModified();
+
+        Entry entry = entries.get(path);
+        if (entry != null && entry.length == length && entry.lastModified == lastModified) {
+            if (current != null) {
+                current.entries.put(path, entry);
+            }
+            return false;
+        }
+
+        if (entry == null || entry.length != length) {
+            if (current != null) {
+                current.entries.put(path, new Entry(length, lastModified, hash(file)));
+            }
+            return true;
+        }
+
+        long hash = hash(file);
+        if (current != null) {
+            current.entries.put(path, new Entry(length, lastModified, hash));
+        }
+        if (entry.hash != NO_HASH && entry.hash == hash) {
+            log.debug("File touched but content not changed: {}", file);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Record current state of the file, the content is hashed only if changed.
+     *
+     * @param file the file
+     * @param previous previous manifest, may be null: the file is recorded without hash
+     */
+    public void put(File file, BuildManifest previous) {
+        if (previous != null) {
+            previous.isChanged(file, this);
+        } else {
+            entries.put(file.getAbsolutePath(), new Entry(file.length(), file.lastModified(), NO_HASH));
+        }
+    }
+
+    /**
+     * Whether the file is exactly the one recorded in this manifest with the specified
+     * content hash, i.e. it has not been modified since recorded.
+     *
+     * @param file the file
+     * @param hash content hash
+     * @return true if unchanged
+     */
+    public boolean isUnchanged(File file, long hash) {
+        Entry entry = entries.get(file.getAbsolutePath());
+        return entry != null && entry.hash != NO_HASH && entry.hash == hash
+                && entry.length == file.length()
+                && entry.lastModified == file.lastModified();
+    }
+
+    /**
+     * Record the file with its known content hash.
+     *
+     * @param file the file
+     * @param hash content hash
+     */
+    public void put(File file, long hash) {
+        entries.put(file.getAbsolutePath(), new Entry(file.length(), file.lastModified(), hash));
+    }
+
+    /**
+     * Remove the entries of files not exist any more.
+     */
+    public void removeMissing() {
+        Iterator<String> it = entries.keySet().iterator();
+        while (it.hasNext()) {
+            if (!new File(it.next()).exists()) {
+                it.remove();
+            }
+        }
+    }
+
+    public boolean contains(String path) {
+        return entries.containsKey(path);
+    }
+
+    public Set<String> getPaths() {
+        return entries.keySet();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public static long hash(byte[] bytes) {
+        return HASH_FUNCTION.hashBytes(bytes).asLong();
+    }
+
+    /**
+     * @return hasher which produces the same hash as {@link #hash(byte[])} of all bytes put
+     */
+    public static Hasher newHasher() {
+        return HASH_FUNCTION.newHasher();
+    }
+
+    public static long hash(File file) {
+        try {
+            return Files.hash(file, HASH_FUNCTION).asLong();
+        } catch (IOException e) {
+            throw new RuntimeException("Hash file failed: " + file, e);
+        }
+    }
+
+    static class Entry {
+        private final long length;
+        private final long lastModified;
+        private final long hash;
+
+        Entry(long length, long lastModified, long hash) {
+            this.length = length;
+            this.lastModified = lastModified;
+            this.hash = hash;
+        }
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2013 Alex Lin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opoo.press.build;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hasher;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Writer encodes the characters in UTF-8 straight into the file channel through
+ * a pooled (per thread) byte buffer, optionally hashes the bytes written.
+ *
+ * @author Alex Lin
+ */
+public class ChannelWriter extends Writer {
+    private static final int BUFFER_SIZE = 32 * 1024;
+    private static final ThreadLocal<ByteBuffer> BUFFERS = new ThreadLocal<ByteBuffer>();
+
+    private final File file;
+    private final FileOutputStream stream;
+    private final FileChannel channel;
+    private final CharsetEncoder encoder;
+    private final Hasher hasher;
+    private ByteBuffer buffer;
+    //high surrogate left by the last write
+    private CharBuffer pending;
+    private boolean closed = false;
+    private long hash;
+
+    /**
+     * @param file the file to write
+     * @param hasher hasher of the bytes written, may be null
+     * @throws IOException if the file can not be opened
+     */
+    public ChannelWriter(File file, Hasher hasher) throws IOException {
+        this.file = file;
+        this.stream = new FileOutputStream(file);
+        this.channel = stream.getChannel();
+        this.hasher = hasher;
+        this.encoder = Charsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+        //take the buffer of this thread, allocate one if taken by another writer
+        buffer = BUFFERS.get();
+        if (buffer != null) {
+            BUFFERS.set(null);
+            buffer.clear();
+        } else {
+            buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        write(CharBuffer.wrap(cbuf, off, len));
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        write(CharBuffer.wrap(str, off, off + len));
+    }
+
+    private void write(CharBuffer in) throws IOException {
+        ensureOpen();
+        if (pending != null) {
+            CharBuffer merged = CharBuffer.allocate(pending.remaining() + in.remaining());
+            merged.put(pending).put(in).flip();
+            pending = null;
+            in = merged;
+        }
+        encode(in, false);
+    }
+
+    private void encode(CharBuffer in, boolean endOfInput) throws IOException {
+        while (true) {
+            CoderResult result = encoder.encode(in, buffer, endOfInput);
+            if (result.isOverflow()) {
+                drain();
+            } else if (result.isUnderflow()) {
+                if (in.hasRemaining()) {
+                    pending = CharBuffer.allocate(in.remaining()).put(in);
+                    pending.flip();
+                }
+                return;
+            } else {
+                result.throwException();
+            }
+        }
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+        if (hasher != null) {
+            hasher.putBytes(buffer.array(), buffer.arrayOffset(), buffer.limit());
+        }
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        drain();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            encode(pending != null ? pending : CharBuffer.allocate(0), true);
+            pending = null;
+            while (encoder.flush(buffer).isOverflow()) {
+                drain();
+            }
+            drain();
+            if (hasher != null) {
+                hash = hasher.hash().asLong();
+            }
+        } finally {
+            IOUtils.closeQuietly(stream);
+            //give back the buffer
+            BUFFERS.set(buffer);
+            buffer = null;
+        }
+        onClose();
+    }
+
+    /**
+     * Close the file and delete it, the content written is discarded.
+     */
+    public void abort() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        IOUtils.closeQuietly(stream);
+        BUFFERS.set(buffer);
+        buffer = null;
+        FileUtils.deleteQuietly(file);
+    }
+
+    /**
+     * Called once the file closed.
+     *
+     * @throws IOException if any error
+     */
+    protected void onClose() throws IOException {
+    }
+
+    /**
+     * @return hash of the bytes written, only available after closed
+     */
+    public long getHash() {
+        return hash;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Writer closed: " + file);
+        }
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright 2013 Alex Lin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opoo.press.build;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import org.apache.commons.io.IOUtils;
+import org.opoo.press.FileOrigin;
+import org.opoo.press.Origin;
+import org.opoo.press.Page;
+import org.opoo.press.Site;
+import org.opoo.press.Source;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Dependency graph of the last build: source file -&gt; page -&gt; layout templates,
+ * and page -&gt; pages whose content it renders (e.g. excerpts on paginated
+ * index pages, tag pages and feeds).
+ * <p>
+ * Pages generated from a template page (tag pages, paginated pages) share the
+ * source of the template page, so they are tracked by that source file too.
+ * Collection membership, tags and pagination are derived from source meta,
+ * a meta change of any page requires a full build.
+ *
+ * @author Alex Lin
+ */
+public class DependencyGraph implements Serializable {
+    private static final long serialVersionUID = -2546201582358542147L;
+    private static final Logger log = LoggerFactory.getLogger(DependencyGraph.class);
+
+    private final Map<String, PageNode> nodes = new HashMap<String, PageNode>();
+
+    static File getFile(Site site) {
+        return new File(site.getWorking(), ".dependencyGraph");
+    }
+
+    /**
+     * Load the dependency graph saved by last build.
+     *
+     * @param site the site
+     * @return the graph, or null if not exists or not readable
+     */
+    public static DependencyGraph load(Site site) {
+        File file = getFile(site);
+        if (!file.exists()) {
+            return null;
+        }
+
+        ObjectInputStream ois = null;
+        try {
+            ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
+            return (DependencyGraph) ois.readObject();
+        } catch (Exception e) {
+            log.warn("Read dependency graph failed, full build required: " + e.getMessage());
+            return null;
+        } finally {
+            IOUtils.closeQuietly(ois);
+        }
+    }
+
+    public void save(Site site) {
+        File file = getFile(site);
+        ObjectOutputStream oos = null;
+        try {
+            oos = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            oos.writeObject(this);
+            oos.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            IOUtils.closeQuietly(oos);
+        }
+    }
+
+    /**
+     * Build the graph of current build.
+     *
+     * @param pages all pages of the site
+     * @param recorded content dependencies recorded while rendering, keyed by page url
+     * @param previous graph of last build, provides dependencies of the pages not rendered in this build
+     * @return the graph
+     */
+    public static DependencyGraph create(List<Page> pages, Map<String, Set<Page>> recorded, DependencyGraph previous) {
+        DependencyGraph graph = new DependencyGraph();
+        for (Page page : pages) {
+            PageNode node = new PageNode(page);
+            Set<Page> deps = recorded.get(node.url);
+            if (deps != null) {
+                for (Page dep : deps) {
+                    node.dependencies.add(dep.getUrl());
+                }
+            } else if (previous != null) {
+                PageNode old = previous.nodes.get(node.url);
+                if (old != null) {
+                    node.dependencies.addAll(old.dependencies);
+                }
+            }
+            graph.nodes.put(node.url, node);
+        }
+        return graph;
+    }
+
+    /**
+     * Works out the pages need to be converted and rendered.
+     *
+     * @param pages all pages of current build
+     * @param changedSources absolute paths of changed source files
+     * @param changedTemplates names of changed templates, see {@link TemplateDependencies}
+     * @param templateDependencies template dependencies
+     * @param dest destination directory
+     * @return the incremental build, or null if a full build required
+     */
+    public IncrementalBuild plan(List<Page> pages, Set<String> changedSources, Set<String> changedTemplates,
+                                 TemplateDependencies templateDependencies, File dest) {
+        if (pages.size() != nodes.size()) {
+            log.info("Page count changed: {} -> {}", nodes.size(), pages.size());
+            return null;
+        }
+
+        Map<String, Page> pageMap = new HashMap<String, Page>();
+        for (Page page : pages) {
+            PageNode current = new PageNode(page);
+            PageNode old = nodes.get(current.url);
+            if (old == null) {
+                log.info("New page: {}", current.url);
+                return null;
+            }
+            if (!current.isSameAs(old)) {
+                log.info("Page meta or layout changed: {}", current.url);
+                return null;
+            }
+            pageMap.put(current.url, page);
+        }
+
+        //template changes
+        Set<String> layoutTemplates = new LinkedHashSet<String>();
+        for (PageNode node : nodes.values()) {
+            layoutTemplates.addAll(templateDependencies.getLayoutTemplates(node.layout));
+        }
+        for (String template : changedTemplates) {
+            if (!layoutTemplates.contains(template)) {
+                log.info("Template changed and not used by layout: {}", template);
+                return null;
+            }
+        }
+
+        //pages rendered by changed sources
+        Set<String> changedUrls = new LinkedHashSet<String>();
+        for (PageNode node : nodes.values()) {
+            if (node.source == null || changedSources.contains(node.source)) {
+                changedUrls.add(node.url);
+            }
+        }
+
+        Set<Page> renderPages = new LinkedHashSet<Page>();
+        for (PageNode node : nodes.values()) {
+            Page page = pageMap.get(node.url);
+            if (changedUrls.contains(node.url)
+                    || containsAny(templateDependencies.getLayoutTemplates(node.layout), changedTemplates)
+                    || containsAny(node.dependencies, changedUrls)
+                    || !page.getOutputFile(dest).exists()) {
+                renderPages.add(page);
+            }
+        }
+
+        Set<Page> convertPages;
+        if (!changedTemplates.isEmpty()) {
+            //templates may render content of any other page
+            convertPages = new LinkedHashSet<Page>(pages);
+        } else {
+            convertPages = new LinkedHashSet<Page>(renderPages);
+            for (Page page : renderPages) {
+                for (String url : nodes.get(page.getUrl()).dependencies) {
+                    Page dep = pageMap.get(url);
+                    if (dep != null) {
+                        convertPages.add(dep);
+                    }
+                }
+            }
+        }
+
+        return new IncrementalBuild(new ArrayList<Page>(convertPages), new ArrayList<Page>(renderPages));
+    }
+
+    private static boolean containsAny(Collection<String> set, Collection<String> values) {
+        for (String value : values) {
+            if (set.contains(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static class PageNode implements Serializable {
+        private static final long serialVersionUID = 1943683716035476382L;
+
+        private final String url;
+        private final String layout;
+        private final String source;
+        private final long metaHash;
+        private final Set<String> dependencies = new LinkedHashSet<String>();
+
+        PageNode(Page page) {
+            this.url = page.getUrl();
+            this.layout = page.getLayout();
+
+            Source src = page.getSource();
+            Origin origin = src != null ? src.getOrigin() : null;
+            this.source = origin instanceof FileOrigin ? ((FileOrigin) origin).getFile().getAbsolutePath() : null;
+
+            String meta = src != null ? new TreeMap<String, Object>(src.getMeta()).toString() : "";
+            this.metaHash = Hashing.murmur3_128().hashString(meta, Charsets.UTF_8).asLong();
+        }
+
+        boolean isSameAs(PageNode node) {
+            return metaHash == node.metaHash
+                    && equals(layout, node.layout)
+                    && equals(source, node.source);
+        }
+
+        private static boolean equals(String a, String b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2013 Alex Lin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opoo.press.build;
+
+import org.opoo.press.Page;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Records which pages' content is read while a page is being rendered, e.g.
+ * the excerpts listed on an index page or in a feed.
+ *
+ * @author Alex Lin
+ */
+public abstract class DependencyRecorder {
+    private static final ThreadLocal<Recording> RECORDING = new ThreadLocal<Recording>();
+
+    /**
+     * Starts recording for the page rendering in current thread.
+     *
+     * @param page the page being rendered
+     */
+    public static void begin(Page page) {
+        RECORDING.set(new Recording(page));
+    }
+
+    /**
+     * Records that the content of the specified page has been read.
+     * Does nothing if no recording is active in current thread.
+     *
+     * @param page the page whose content is read
+     */
+    public static void record(Page page) {
+        Recording recording = RECORDING.get();
+        if (recording != null) {
+            recording.add(page);
+        }
+    }
+
+    /**
+     * Records that the content of all the specified pages has been read, e.g. the
+     * dependencies of a cached fragment reused by the page being rendered.
+     *
+     * @param pages the pages whose content is read
+     */
+    public static void recordAll(Collection<Page> pages) {
+        Recording recording = RECORDING.get();
+        if (recording != null) {
+            for (Page page : pages) {
+                recording.add(page);
+            }
+        }
+    }
+
+    /**
+     * Starts capturing the pages read in current thread, in addition to the
+     * recording of the page being rendered.
+     *
+     * @return the captured pages, pass it to {@link #endCapture(Set)};
+     * null if no recording is active in current thread
+     */
+    public static Set<Page> beginCapture() {
+        Recording recording = RECORDING.get();
+        if (recording == null) {
+            return null;
+        }
+        Set<Page> captured = new LinkedHashSet<Page>();
+        recording.captures.add(captured);
+        return captured;
+    }
+
+    /**
+     * Stops capturing.
+     *
+     * @param captured the set returned by {@link #beginCapture()}
+     */
+    public static void endCapture(Set<Page> captured) {
+        Recording recording = RECORDING.get();
+        if (recording != null && captured != null) {
+            recording.captures.remove(captured);
+        }
+    }
+
+    /**
+     * Stops recording in current thread.
+     *
+     * @return the pages read since {@link #begin(Page)}
+     */
+    public static Set<Page> end() {
+        Recording recording = RECORDING.get();
+        RECORDING.remove();
+        return recording != null ? recording.pages : null;
+    }
+
+    private static class Recording {
+        private final Page page;
+        private final Set<Page> pages = new LinkedHashSet<Page>();
+        private final List<Set<Page>> captures = new ArrayList<Set<Page>>(2);
+
+        private Recording(Page page) {
+            this.page = page;
+        }
+
+        private void add(Page read) {
+            if (read != page) {
+                pages.add(read);
+            }
+            //a captured fragment may be reused by other pages, including the page itself
+            for (Set<Page> captured : captures) {
+                captured.add(read);
+            }
+        }
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2013 Alex Lin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opoo.press.build;
+
+import org.opoo.press.Page;
+
+import java.util.List;
+
+/**
+ * The pages affected by changes since last build. All other pages are carried
+ * forward from the output of last build.
+ *
+ * @author Alex Lin
+ */
+public class IncrementalBuild {
+    private final List<Page> convertPages;
+    private final List<Page> renderPages;
+
+    IncrementalBuild(List<Page> convertPages, List<Page> renderPages) {
+        this.convertPages = convertPages;
+        this.renderPages = renderPages;
+    }
+
+    /**
+     * @return pages to be converted, includes pages whose content is rendered into other pages
+     */
+    public List<Page> getConvertPages() {
+        return convertPages;
+    }
+
+    /**
+     * @return pages to be rendered and written
+     */
+    public List<Page> getRenderPages() {
+        return renderPages;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2013 Alex Lin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opoo.press.build;
+
+import org.apache.commons.io.FileUtils;
+import org.opoo.press.Site;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Output files (pages and static files) of last build, one absolute path per line,
+ * after a first line of the destination directory. The outputs of last build which
+ * are not produced any more, e.g. the output of a deleted page, are deleted without
+ * scanning the destination directory.
+ *
+ * @author Alex Lin
+ */
+public abstract class OutputFileList {
+    private static final Logger log = LoggerFactory.getLogger(OutputFileList.class);
+
+    static File getFile(Site site) {
+        return new File(site.getWorking(), ".outputFiles");
+    }
+
+    /**
+     * @param site the site
+     * @param dest current destination directory
+     * @return output files of last build under the destination directory, or null
+     * if not exists, not readable or saved for another destination directory
+     */
+    public static Set<File> load(Site site, File dest) {
+        File file = getFile(site);
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            List<String> lines = FileUtils.readLines(file, "UTF-8");
+            String root = dest.getAbsolutePath();
+            if (lines.isEmpty() || !root.equals(lines.get(0))) {
+                log.debug("Destination directory changed, output file list ignored.");
+                return null;
+            }
+            String prefix = root.endsWith(File.separator) ? root : root + File.separator;
+            Set<File> files = new LinkedHashSet<File>(lines.size() * 4 / 3 + 1);
+            for (String line : lines.subList(1, lines.size())) {
+                if (line.startsWith(prefix)) {
+                    files.add(new File(line));
+                }
+            }
+            return files;
+        } catch (IOException e) {
+            log.warn("Read output file list failed: " + e.getMessage());
+            return null;
+        }
+    }
+
+    public static void save(Site site, File dest, Collection<File> files) {
+        List<String> lines = new ArrayList<String>(files.size() + 1);
+        lines.add(dest.getAbsolutePath());
+        for (File file : files) {
+            lines.add(file.getAbsolutePath());
+        }
+        try {
+            FileUtils.writeLines(getFile(site), "UTF-8", lines, "\n");
+        } catch (IOException e) {
+            throw new RuntimeException("Write output file list failed.", e);
+        }
+    }
+}
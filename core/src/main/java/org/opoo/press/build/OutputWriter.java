@@ -0,0 +1,148 @@
+/*
+ * Copyright 2013 Alex Lin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opoo.press.build;
+
+import com.google.common.base.Charsets;
+import org.apache.commons.io.FileUtils;
+import org.opoo.press.Site;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writes output files only if their content changed since last build, files
+ * with identical content are left untouched, include their last modified time.
+ *
+ * @author Alex Lin
+ */
+public class OutputWriter {
+    private static final Logger log = LoggerFactory.getLogger(OutputWriter.class);
+
+    private final BuildManifest manifest;
+    private final AtomicInteger written = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+
+    private OutputWriter(BuildManifest manifest) {
+        this.manifest = manifest;
+    }
+
+    static File getManifestFile(Site site) {
+        return new File(site.getWorking(), ".outputManifest");
+    }
+
+    /**
+     * Create writer with the output manifest of last build.
+     *
+     * @param site the site
+     * @return output writer
+     */
+    public static OutputWriter open(Site site) {
+        BuildManifest manifest = BuildManifest.load(getManifestFile(site));
+        return new OutputWriter(manifest != null ? manifest : new BuildManifest());
+    }
+
+    /**
+     * Save the output manifest for next build.
+     *
+     * @param site the site
+     */
+    public void close(Site site) {
+        manifest.removeMissing();
+        manifest.save(getManifestFile(site));
+        log.info("Output files written: {}, unchanged and skipped: {}", written.get(), skipped.get());
+    }
+
+    public void write(File file, String content) throws IOException {
+        byte[] bytes = content != null ? content.getBytes(Charsets.UTF_8) : new byte[0];
+        long hash = BuildManifest.hash(bytes);
+        if (manifest.isUnchanged(file, hash)) {
+            log.debug("Output not changed, skip writing: {}", file);
+            skipped.incrementAndGet();
+            return;
+        }
+
+        FileUtils.writeByteArrayToFile(file, bytes);
+        manifest.put(file, hash);
+        written.incrementAndGet();
+    }
+
+    public void copy(File source, File target) throws IOException {
+        long hash = BuildManifest.hash(source);
+        if (manifest.isUnchanged(target, hash)) {
+            log.debug("Output not changed, skip copying: {}", target);
+            skipped.incrementAndGet();
+            return;
+        }
+
+        FileUtils.copyFile(source, target);
+        manifest.put(target, hash);
+        written.incrementAndGet();
+    }
+
+    /**
+     * Open a writer to stream the content into the file. The content is written to
+     * a temporary file and hashed on the fly, when closed the temporary file replaces
+     * the target file only if the content changed.
+     *
+     * @param file the target file
+     * @return the writer, must be closed
+     * @throws IOException if any I/O error
+     */
+    public ChannelWriter openStream(final File file) throws IOException {
+        final File tmp = new File(file.getParentFile(), "." + file.getName() + ".tmp");
+        return new ChannelWriter(tmp, BuildManifest.newHasher()) {
+            @Override
+            protected void onClose() throws IOException {
+                long hash = getHash();
+                if (manifest.isUnchanged(file, hash)) {
+                    log.debug("Output not changed, skip writing: {}", file);
+                    FileUtils.deleteQuietly(tmp);
+                    skipped.incrementAndGet();
+                    return;
+                }
+
+                if (!tmp.renameTo(file)) {
+                    //Windows
+                    FileUtils.deleteQuietly(file);
+                    if (!tmp.renameTo(file)) {
+                        FileUtils.deleteQuietly(tmp);
+                        throw new IOException("Rename output file failed: " + file);
+                    }
+                }
+                manifest.put(file, hash);
+                written.incrementAndGet();
+            }
+        };
+    }
+
+    /**
+     * Count a file not written since it is up to date.
+     */
+    public void skip() {
+        skipped.incrementAndGet();
+    }
+
+    public int getWrittenCount() {
+        return written.get();
+    }
+
+    public int getSkippedCount() {
+        return skipped.get();
+    }
+}
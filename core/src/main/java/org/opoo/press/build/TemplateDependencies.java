@@ -0,0 +1,151 @@
+/*
+ * Copyright 2013 Alex Lin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opoo.press.build;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Include/import relations between the files of the template directory.
+ * <p>
+ * Template names are paths relative to the template directory, always
+ * starting with '/', e.g. <code>/_post.ftl</code>.
+ *
+ * @author Alex Lin
+ */
+public class TemplateDependencies {
+    private static final Logger log = LoggerFactory.getLogger(TemplateDependencies.class);
+
+    /**
+     * FreeMarker <code>&lt;#include "x"&gt;</code>, <code>&lt;#import "x" as y&gt;</code>
+     * and Velocity <code>#parse("x")</code>, <code>#include("x")</code>.
+     */
+    private static final Pattern INCLUDE_PATTERN = Pattern.compile(
+            "(?:<#(?:include|import)\\s+|#(?:parse|include)\\s*\\(\\s*)[\"']([^\"']+)[\"']");
+
+    private final File templateDir;
+    private final List<String> globalTemplates;
+    private final Map<String, Set<String>> includes = new HashMap<String, Set<String>>();
+    private final Map<String, Set<String>> closures = new HashMap<String, Set<String>>();
+
+    /**
+     * @param templateDir template directory
+     * @param globalTemplates templates used by all pages, e.g. FreeMarker auto imports
+     */
+    public TemplateDependencies(File templateDir, Collection<String> globalTemplates) {
+        this.templateDir = templateDir;
+        this.globalTemplates = new ArrayList<String>();
+        if (globalTemplates != null) {
+            for (String name : globalTemplates) {
+                this.globalTemplates.add(normalize(null, name));
+            }
+        }
+    }
+
+    /**
+     * Returns the names of all templates used to render a page of the specified
+     * layout, including the layout template itself.
+     *
+     * @param layout page layout
+     * @return template names
+     */
+    public synchronized Set<String> getLayoutTemplates(String layout) {
+        String key = layout == null ? "" : layout;
+        Set<String> closure = closures.get(key);
+        if (closure == null) {
+            closure = new LinkedHashSet<String>();
+            for (String name : globalTemplates) {
+                collect(name, closure);
+            }
+            if (StringUtils.isNotBlank(layout) && !"nil".equalsIgnoreCase(layout)) {
+                collect("/_" + layout + ".ftl", closure);
+                collect("/_" + layout + ".vm", closure);
+            }
+            closures.put(key, closure);
+        }
+        return closure;
+    }
+
+    private void collect(String name, Set<String> closure) {
+        if (!closure.add(name)) {
+            return;
+        }
+        for (String included : getIncludes(name)) {
+            collect(included, closure);
+        }
+    }
+
+    private Set<String> getIncludes(String name) {
+        Set<String> set = includes.get(name);
+        if (set == null) {
+            set = new LinkedHashSet<String>();
+            File file = new File(templateDir, name.substring(1));
+            if (file.isFile()) {
+                try {
+                    String content = FileUtils.readFileToString(file, "UTF-8");
+                    Matcher matcher = INCLUDE_PATTERN.matcher(content);
+                    while (matcher.find()) {
+                        set.add(normalize(name, matcher.group(1)));
+                    }
+                } catch (IOException e) {
+                    log.warn("Read template failed: " + file, e);
+                }
+            }
+            includes.put(name, set);
+        }
+        return set;
+    }
+
+    /**
+     * @param base the including template name, null for root
+     * @param name the included template name, absolute or relative to <code>base</code>
+     * @return normalized name
+     */
+    static String normalize(String base, String name) {
+        String path;
+        if (name.startsWith("/") || base == null) {
+            path = name;
+        } else {
+            path = base.substring(0, base.lastIndexOf('/') + 1) + name;
+        }
+
+        List<String> parts = new ArrayList<String>();
+        for (String part : StringUtils.split(path, '/')) {
+            if ("..".equals(part)) {
+                if (!parts.isEmpty()) {
+                    parts.remove(parts.size() - 1);
+                }
+            } else if (!".".equals(part)) {
+                parts.add(part);
+            }
+        }
+        return "/" + StringUtils.join(parts, '/');
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright 2013 Alex Lin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opoo.press.cache;
+
+import com.google.common.base.Charsets;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Content store backed by a single memory mapped file. Content is encoded in
+ * UTF-8 and appended to the store, the returned {@link Entry} is the address
+ * (offset and length) of the content, reading it back decodes the mapped region
+ * directly, no file is opened per content.
+ * <p>
+ * The file is mapped in segments, an entry never spans two segments. Entries no
+ * longer used are released by {@link #free(Entry)}, a segment without any live
+ * entry is reused for new content, so the file grows with the live content only.
+ * The store is truncated when opened, it lives for one build only.
+ *
+ * @author Alex Lin
+ */
+public class ContentStore {
+    private static final Logger log = LoggerFactory.getLogger(ContentStore.class);
+    public static final int DEFAULT_SEGMENT_SIZE = 32 * 1024 * 1024;
+
+    private final File file;
+    private final int segmentSize;
+    private final List<Segment> segments = new ArrayList<Segment>();
+    private final Deque<Segment> freeSegments = new ArrayDeque<Segment>();
+    private RandomAccessFile raf;
+    private FileChannel channel;
+    private long fileSize;
+    private Segment current;
+    private long liveBytes;
+
+    private ContentStore(File file, int segmentSize) {
+        this.file = file;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Open the store, any content of previous build is discarded.
+     *
+     * @param file store file
+     * @param segmentSize size of each mapped segment
+     * @return content store
+     */
+    public static ContentStore open(File file, int segmentSize) {
+        ContentStore store = new ContentStore(file, segmentSize);
+        try {
+            file.getParentFile().mkdirs();
+            store.raf = new RandomAccessFile(file, "rw");
+            store.raf.setLength(0);
+            store.channel = store.raf.getChannel();
+        } catch (IOException e) {
+            IOUtils.closeQuietly(store.raf);
+            throw new RuntimeException("Open content store failed: " + file, e);
+        }
+        log.debug("Content store opened: {}", file);
+        return store;
+    }
+
+    /**
+     * Append the content to the store.
+     *
+     * @param content the content
+     * @return address of the content in store, null if content is null
+     */
+    public Entry put(String content) {
+        if (content == null) {
+            return null;
+        }
+        byte[] bytes = content.getBytes(Charsets.UTF_8);
+        return put(bytes);
+    }
+
+    public synchronized Entry put(byte[] bytes) {
+        if (channel == null) {
+            throw new IllegalStateException("Content store closed: " + file);
+        }
+        if (current == null || current.buffer.remaining() < bytes.length) {
+            Segment previous = current;
+            current = nextSegment(bytes.length);
+            if (previous != null && previous.live == 0) {
+                recycle(previous);
+            }
+        }
+        int offset = current.buffer.position();
+        current.buffer.put(bytes);
+        current.live++;
+        liveBytes += bytes.length;
+        return new Entry(current, offset, bytes.length);
+    }
+
+    private Segment nextSegment(int minSize) {
+        for (Iterator<Segment> it = freeSegments.iterator(); it.hasNext(); ) {
+            Segment segment = it.next();
+            if (segment.buffer.capacity() >= minSize) {
+                it.remove();
+                return segment;
+            }
+        }
+        return map(Math.max(segmentSize, minSize));
+    }
+
+    private Segment map(int size) {
+        try {
+            Segment segment = new Segment(channel.map(FileChannel.MapMode.READ_WRITE, fileSize, size));
+            fileSize += size;
+            segments.add(segment);
+            return segment;
+        } catch (IOException e) {
+            throw new RuntimeException("Extend content store failed: " + file, e);
+        }
+    }
+
+    private void recycle(Segment segment) {
+        segment.buffer.clear();
+        freeSegments.add(segment);
+    }
+
+    /**
+     * Release the content, the entry must not be read any more.
+     *
+     * @param entry address of the content, ignored if null
+     */
+    public synchronized void free(Entry entry) {
+        if (entry == null || channel == null) {
+            return;
+        }
+        Segment segment = entry.segment;
+        segment.live--;
+        liveBytes -= entry.length;
+        if (segment.live == 0 && segment != current) {
+            recycle(segment);
+        }
+    }
+
+    /**
+     * Read the content of the specified address.
+     *
+     * @param entry address of the content
+     * @return the content, or null if entry is null
+     */
+    public String get(Entry entry) {
+        if (entry == null) {
+            return null;
+        }
+        ByteBuffer buffer;
+        synchronized (this) {
+            if (channel == null) {
+                throw new IllegalStateException("Content store closed: " + file);
+            }
+            buffer = entry.segment.buffer.duplicate();
+        }
+        buffer.limit(entry.offset + entry.length).position(entry.offset);
+        return Charsets.UTF_8.decode(buffer).toString();
+    }
+
+    /**
+     * @return bytes of live content stored
+     */
+    public synchronized long size() {
+        return liveBytes;
+    }
+
+    /**
+     * @return bytes of the store file
+     */
+    public synchronized long getFileSize() {
+        return fileSize;
+    }
+
+    /**
+     * Close and delete the store file.
+     */
+    public synchronized void close() {
+        if (channel == null) {
+            return;
+        }
+        log.debug("Closing content store: {} bytes live, {} bytes in {} segments.", liveBytes, fileSize, segments.size());
+        segments.clear();
+        freeSegments.clear();
+        current = null;
+        IOUtils.closeQuietly(channel);
+        IOUtils.closeQuietly(raf);
+        channel = null;
+        raf = null;
+        //may fail while the segments are still mapped (Windows)
+        FileUtils.deleteQuietly(file);
+    }
+
+    /**
+     * Address of content in store.
+     */
+    public static final class Entry {
+        private final Segment segment;
+        private final int offset;
+        private final int length;
+
+        Entry(Segment segment, int offset, int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public int getLength() {
+            return length;
+        }
+    }
+
+    private static final class Segment {
+        private final MappedByteBuffer buffer;
+        //entries not freed
+        private int live;
+
+        Segment(MappedByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+    }
+}
@@ -0,0 +1,435 @@
+/*
+ * Copyright 2013 Alex Lin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opoo.press.cache;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.opoo.press.Converter;
+import org.opoo.press.Highlighter;
+import org.opoo.press.Site;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Persistent cache of converted content across builds, stored in the working
+ * directory. The key of a conversion is the hash of the converter class, the
+ * converter's configuration (site config value of the converter class name),
+ * the highlighter class and the source content.
+ * <p>
+ * Converted content is appended to a data file, the index (key, offset,
+ * length, checksum and the last build used) is loaded into memory. Entries
+ * whose data does not match the checksum are dropped and converted again.
+ * Entries not used in the last <code>conversion_cache_max_age</code> builds
+ * are evicted, the data file is compacted when more than half of it is garbage.
+ * <p>
+ * The index names the generation of the data file it describes. Compaction
+ * writes a data file of the next generation and the previous one is deleted
+ * only after the index of the new generation has been saved, so the index
+ * and the data file on disk always match.
+ *
+ * @author Alex Lin
+ */
+public class ConversionCache {
+    private static final Logger log = LoggerFactory.getLogger(ConversionCache.class);
+    private static final int MAGIC = 0x4F50434E;
+    private static final int VERSION = 2;
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+    private static final HashFunction CHECKSUM_FUNCTION = Hashing.crc32();
+
+    private final File dir;
+    private final File indexFile;
+    private File dataFile;
+    private int generation;
+    private final int build;
+    private final int maxAge;
+    private final ConcurrentMap<Long, Entry> entries;
+    private final Map<Class<?>, Long> converterSeeds = new ConcurrentHashMap<Class<?>, Long>();
+    private final Site site;
+
+    private RandomAccessFile raf;
+    private FileChannel channel;
+    private long dataSize;
+
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+
+    private ConversionCache(Site site, File dir, int generation, int build, ConcurrentMap<Long, Entry> entries, int maxAge) {
+        this.site = site;
+        this.dir = dir;
+        this.indexFile = new File(dir, "index");
+        this.generation = generation;
+        this.dataFile = getDataFile(dir, generation);
+        this.build = build;
+        this.entries = entries;
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * Open the conversion cache of the site.
+     *
+     * @param site the site
+     * @return conversion cache
+     */
+    public static ConversionCache open(Site site) {
+        File dir = new File(site.getWorking(), ".conversionCache");
+        int maxAge = site.getConfig().get("conversion_cache_max_age", 5);
+
+        int generation = 0;
+        int lastBuild = 0;
+        ConcurrentMap<Long, Entry> entries = null;
+        File indexFile = new File(dir, "index");
+        if (indexFile.exists()) {
+            DataInputStream in = null;
+            try {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+                if (in.readInt() == MAGIC && in.readInt() == VERSION) {
+                    generation = in.readInt();
+                    lastBuild = in.readInt();
+                    int count = in.readInt();
+                    entries = new ConcurrentHashMap<Long, Entry>(count * 4 / 3 + 1);
+                    for (int i = 0; i < count; i++) {
+                        long key = in.readLong();
+                        entries.put(key, new Entry(in.readLong(), in.readInt(), in.readInt(), in.readInt()));
+                    }
+                } else {
+                    log.warn("Invalid conversion cache index: {}", indexFile);
+                }
+            } catch (IOException e) {
+                log.warn("Read conversion cache index failed: " + indexFile, e);
+                entries = null;
+            } finally {
+                IOUtils.closeQuietly(in);
+            }
+        }
+
+        if (entries != null && !getDataFile(dir, generation).exists()) {
+            log.warn("Conversion cache data file not found: {}", getDataFile(dir, generation));
+            entries = null;
+        }
+        if (entries == null) {
+            generation = 0;
+        }
+        deleteUnusedFiles(dir, generation);
+
+        ConversionCache cache = new ConversionCache(site, dir, generation, lastBuild + 1,
+                entries != null ? entries : new ConcurrentHashMap<Long, Entry>(), maxAge);
+        cache.openData(entries == null);
+        log.debug("Conversion cache opened: {} entries.", cache.entries.size());
+        return cache;
+    }
+
+    private static File getDataFile(File dir, int generation) {
+        return new File(dir, "data." + generation);
+    }
+
+    /**
+     * Delete data files of other generations, left by an interrupted compaction
+     * or an older cache format.
+     */
+    private static void deleteUnusedFiles(File dir, int generation) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        String dataFileName = getDataFile(dir, generation).getName();
+        for (File file : files) {
+            String name = file.getName();
+            if (name.startsWith("data") && !name.equals(dataFileName)) {
+                FileUtils.deleteQuietly(file);
+            }
+        }
+    }
+
+    private void openData(boolean truncate) {
+        try {
+            dataFile.getParentFile().mkdirs();
+            raf = new RandomAccessFile(dataFile, "rw");
+            if (truncate) {
+                raf.setLength(0);
+            }
+            channel = raf.getChannel();
+            dataSize = channel.size();
+        } catch (IOException e) {
+            IOUtils.closeQuietly(raf);
+            throw new RuntimeException("Open conversion cache failed: " + dataFile, e);
+        }
+    }
+
+    /**
+     * Convert the content, or reuse the result of the same conversion in previous builds.
+     *
+     * @param converter the converter
+     * @param content content to convert
+     * @return converted content
+     */
+    public String convert(Converter converter, String content) {
+        long key = HASH_FUNCTION.newHasher()
+                .putLong(getConverterSeed(converter))
+                .putString(content, Charsets.UTF_8)
+                .hash().asLong();
+
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            String converted = read(entry);
+            if (converted != null) {
+                entry.lastUsed = build;
+                hits.incrementAndGet();
+                return converted;
+            }
+            entries.remove(key, entry);
+        }
+
+        misses.incrementAndGet();
+        String converted = converter.convert(content);
+        if (converted != null) {
+            write(key, converted);
+        }
+        return converted;
+    }
+
+    private long getConverterSeed(Converter converter) {
+        Long seed = converterSeeds.get(converter.getClass());
+        if (seed == null) {
+            String name = converter.getClass().getName();
+            Object config = site.getConfig().get(name);
+            Highlighter highlighter = site.getFactory().getHighlighter();
+            seed = HASH_FUNCTION.newHasher()
+                    .putString(name, Charsets.UTF_8)
+                    .putString(String.valueOf(config), Charsets.UTF_8)
+                    .putString(highlighter != null ? highlighter.getClass().getName() : "", Charsets.UTF_8)
+                    .hash().asLong();
+            converterSeeds.put(converter.getClass(), seed);
+        }
+        return seed;
+    }
+
+    private String read(Entry entry) {
+        try {
+            if (entry.length < 0 || entry.offset < 0 || entry.offset + entry.length > channel.size()) {
+                log.debug("Conversion cache entry out of range: {}", dataFile);
+                return null;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(entry.length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, entry.offset + buffer.position()) < 0) {
+                    return null;
+                }
+            }
+            if (CHECKSUM_FUNCTION.hashBytes(buffer.array()).asInt() != entry.checksum) {
+                log.debug("Conversion cache entry checksum mismatch: {}", dataFile);
+                return null;
+            }
+            buffer.flip();
+            return Charsets.UTF_8.decode(buffer).toString();
+        } catch (IOException e) {
+            log.warn("Read conversion cache failed: " + dataFile, e);
+            return null;
+        }
+    }
+
+    private void write(long key, String converted) {
+        byte[] bytes = converted.getBytes(Charsets.UTF_8);
+        try {
+            long offset;
+            synchronized (this) {
+                offset = dataSize;
+                dataSize += bytes.length;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, offset + buffer.position());
+            }
+            entries.put(key, new Entry(offset, bytes.length, CHECKSUM_FUNCTION.hashBytes(bytes).asInt(), build));
+        } catch (IOException e) {
+            log.warn("Write conversion cache failed: " + dataFile, e);
+        }
+    }
+
+    /**
+     * Evict expired entries and save the index.
+     */
+    public synchronized void close() {
+        if (channel == null) {
+            return;
+        }
+
+        int evicted = 0;
+        long liveSize = 0;
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (build - entry.lastUsed >= maxAge) {
+                it.remove();
+                evicted++;
+            } else {
+                liveSize += entry.length;
+            }
+        }
+
+        File previousDataFile = null;
+        try {
+            if (liveSize * 2 < dataSize) {
+                previousDataFile = dataFile;
+                compact();
+            }
+        } catch (IOException e) {
+            log.warn("Compact conversion cache failed: " + dataFile, e);
+            previousDataFile = null;
+        } finally {
+            IOUtils.closeQuietly(channel);
+            IOUtils.closeQuietly(raf);
+            channel = null;
+            raf = null;
+        }
+
+        if (saveIndex() && previousDataFile != null) {
+            FileUtils.deleteQuietly(previousDataFile);
+        }
+
+        int total = hits.get() + misses.get();
+        log.info("Conversion cache: {} hits, {} misses, hit rate {}%, {} entries, {} evicted.",
+                hits.get(), misses.get(), total > 0 ? hits.get() * 100 / total : 0, entries.size(), evicted);
+    }
+
+    private void compact() throws IOException {
+        log.debug("Compacting conversion cache: {} bytes", dataSize);
+        List<Map.Entry<Long, Entry>> list = new ArrayList<Map.Entry<Long, Entry>>(entries.entrySet());
+        //sequential read
+        Collections.sort(list, new Comparator<Map.Entry<Long, Entry>>() {
+            @Override
+            public int compare(Map.Entry<Long, Entry> o1, Map.Entry<Long, Entry> o2) {
+                long x = o1.getValue().offset;
+                long y = o2.getValue().offset;
+                return (x < y) ? -1 : ((x == y) ? 0 : 1);
+            }
+        });
+
+        //the index is updated only when the new generation is complete
+        File target = getDataFile(dir, generation + 1);
+        Map<Long, Entry> compacted = new HashMap<Long, Entry>(list.size() * 4 / 3 + 1);
+        FileOutputStream out = new FileOutputStream(target);
+        long offset = 0;
+        try {
+            FileChannel targetChannel = out.getChannel();
+            for (Map.Entry<Long, Entry> en : list) {
+                Entry entry = en.getValue();
+                long transferred = 0;
+                while (transferred < entry.length) {
+                    long n = channel.transferTo(entry.offset + transferred, entry.length - transferred, targetChannel);
+                    if (n <= 0) {
+                        throw new IOException("Unexpected end of conversion cache data file: " + dataFile);
+                    }
+                    transferred += n;
+                }
+                compacted.put(en.getKey(), new Entry(offset, entry.length, entry.checksum, entry.lastUsed));
+                offset += entry.length;
+            }
+            targetChannel.force(true);
+        } catch (IOException e) {
+            IOUtils.closeQuietly(out);
+            FileUtils.deleteQuietly(target);
+            throw e;
+        } finally {
+            IOUtils.closeQuietly(out);
+        }
+
+        entries.putAll(compacted);
+        generation++;
+        dataFile = target;
+        dataSize = offset;
+    }
+
+    private boolean saveIndex() {
+        File tmp = new File(indexFile.getParentFile(), indexFile.getName() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(generation);
+            out.writeInt(build);
+            out.writeInt(entries.size());
+            for (Map.Entry<Long, Entry> en : entries.entrySet()) {
+                Entry entry = en.getValue();
+                out.writeLong(en.getKey());
+                out.writeLong(entry.offset);
+                out.writeInt(entry.length);
+                out.writeInt(entry.checksum);
+                out.writeInt(entry.lastUsed);
+            }
+            out.flush();
+        } catch (IOException e) {
+            log.warn("Write conversion cache index failed: " + indexFile, e);
+            return false;
+        } finally {
+            IOUtils.closeQuietly(out);
+        }
+
+        FileUtils.deleteQuietly(indexFile);
+        if (!tmp.renameTo(indexFile)) {
+            log.warn("Write conversion cache index failed: {}", indexFile);
+            return false;
+        }
+        return true;
+    }
+
+    public int getHitCount() {
+        return hits.get();
+    }
+
+    public int getMissCount() {
+        return misses.get();
+    }
+
+    private static class Entry {
+        private final long offset;
+        private final int length;
+        private final int checksum;
+        private volatile int lastUsed;
+
+        Entry(long offset, int length, int checksum, int lastUsed) {
+            this.offset = offset;
+            this.length = length;
+            this.checksum = checksum;
+            this.lastUsed = lastUsed;
+        }
+    }
+}
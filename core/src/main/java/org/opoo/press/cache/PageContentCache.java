@@ -0,0 +1,200 @@
+/*
+ * Copyright 2013 Alex Lin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opoo.press.cache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Page content cache bounded by the weight (bytes) of the content held in heap.
+ * When the bound is exceeded the least recently used content is spilled to the
+ * {@link ContentStore} and read back from there on next access.
+ * <p>
+ * Cache operations are never performed while holding the lock of a slot, the
+ * removal listener may lock the evicted slot in any thread. The content and its
+ * weight are changed together under the lock of the slot, the cache holds a
+ * token of the weight, see {@link Token}.
+ *
+ * @author Alex Lin
+ */
+public class PageContentCache {
+    private static final Logger log = LoggerFactory.getLogger(PageContentCache.class);
+    public static final long DEFAULT_MAX_WEIGHT = 64L * 1024 * 1024;
+
+    private final ContentStore store;
+    private final Cache<Slot, Token> cache;
+    private final AtomicLong spilled = new AtomicLong();
+    private final AtomicLong loaded = new AtomicLong();
+
+    public PageContentCache(ContentStore store, long maxWeight) {
+        this.store = store;
+        this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(maxWeight)
+                .weigher(new Weigher<Slot, Token>() {
+                    @Override
+                    public int weigh(Slot key, Token value) {
+                        return value.weight;
+                    }
+                })
+                .removalListener(new RemovalListener<Slot, Token>() {
+                    @Override
+                    public void onRemoval(RemovalNotification<Slot, Token> notification) {
+                        if (notification.wasEvicted()) {
+                            notification.getKey().spill(notification.getValue());
+                        }
+                    }
+                })
+                .build();
+    }
+
+    /**
+     * @return a new slot to hold a piece of content
+     */
+    public Slot newSlot() {
+        return new Slot();
+    }
+
+    /**
+     * Discard all content.
+     */
+    public void clear() {
+        log.debug("Page content cache: {} in heap, {} spilled, {} loaded from store.",
+                cache.size(), spilled.get(), loaded.get());
+        cache.invalidateAll();
+    }
+
+    /**
+     * Cache value of a slot, the weight of the content when the token is created.
+     * The slot is spilled on eviction only if the evicted token is still its
+     * current token, i.e. the content has not been replaced meanwhile.
+     */
+    private static final class Token {
+        private final int weight;
+
+        private Token(int weight) {
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * A piece of content, in heap or spilled to the content store.
+     */
+    public class Slot {
+        private String value;
+        private ContentStore.Entry entry;
+        private Token token;
+
+        private Slot() {
+        }
+
+        public String get() {
+            Token newToken;
+            String v;
+            synchronized (this) {
+                v = value;
+                if (v != null) {
+                    newToken = null;
+                } else if (entry == null) {
+                    return null;
+                } else {
+                    //content accessed again, keep it in heap, the entry is kept so
+                    //that it is not appended again when evicted
+                    v = store.get(entry);
+                    loaded.incrementAndGet();
+                    value = v;
+                    token = newToken = new Token(v.length() * 2);
+                }
+            }
+            if (newToken != null) {
+                putToken(newToken);
+            } else {
+                //touch
+                cache.getIfPresent(this);
+            }
+            return v;
+        }
+
+        public void set(String content) {
+            Token previous;
+            Token newToken;
+            synchronized (this) {
+                previous = token;
+                value = content;
+                //not read any more
+                store.free(entry);
+                entry = null;
+                token = newToken = content != null ? new Token(content.length() * 2) : null;
+            }
+            if (newToken != null) {
+                putToken(newToken);
+            } else if (previous != null) {
+                cache.asMap().remove(this, previous);
+            }
+        }
+
+        /**
+         * Move the content out of heap to the content store, e.g. after the page
+         * written. It is read back from the store if accessed again.
+         */
+        public void evict() {
+            Token evicted;
+            synchronized (this) {
+                evicted = token;
+                if (evicted == null) {
+                    return;
+                }
+                spill(evicted);
+            }
+            cache.asMap().remove(this, evicted);
+        }
+
+        private void putToken(Token t) {
+            cache.put(this, t);
+            //the token may be replaced by another thread before it is put
+            Token current;
+            synchronized (this) {
+                current = token;
+            }
+            if (current != t) {
+                if (current != null) {
+                    cache.asMap().replace(this, t, current);
+                } else {
+                    cache.asMap().remove(this, t);
+                }
+            }
+        }
+
+        private synchronized void spill(Token evicted) {
+            if (token != evicted || value == null) {
+                //replaced or released after the token evicted
+                return;
+            }
+            if (entry == null) {
+                entry = store.put(value);
+                spilled.incrementAndGet();
+            }
+            value = null;
+            token = null;
+        }
+    }
+}
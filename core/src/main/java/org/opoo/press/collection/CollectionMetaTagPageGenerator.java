@@ -29,14 +29,19 @@ import org.opoo.press.Page;
 import org.opoo.press.Site;
 import org.opoo.press.Tag;
 import org.opoo.press.impl.SimplePage;
+import org.opoo.press.impl.SiteImpl;
 import org.opoo.press.pagination.PaginationUtils;
 import org.opoo.press.renderer.AbstractFreeMarkerRenderer;
+import org.opoo.press.task.RunnableTask;
+import org.opoo.press.task.TaskExecutor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author Alex Lin
@@ -89,7 +94,8 @@ public class CollectionMetaTagPageGenerator implements Generator {
         for (String tagMeta : tagMetaNames) {
             String templateIdentity = "tag_template_" + collection.getName() + "_" + tagMeta;
 
-            Page templatePage = lookupTemplatePage(templateIdentity, site.getAllPages(), templatePages);
+            Page templatePage = lookupTemplatePage(templateIdentity, getPagesByMetaKey(site, templateIdentity),
+                    templatePages);
 
             if (templatePage == null) {
                 log.warn("Template page for collection '{}', tag '{}' not found.", collection.getName(), tagMeta);
@@ -106,66 +112,105 @@ public class CollectionMetaTagPageGenerator implements Generator {
         }
     }
 
-    private void generateCollectionMetaTagPages(Site site, Collection collection, Page templatePage, List<? extends MetaTag> tags,
-                                                List<Page> allNewPages) {
-        for (MetaTag tag : tags) {
-            List<Page> pages = tag.getPages();
-            if (pages.isEmpty()) {
-                continue;
+    /**
+     * Generate the pages of tags in parallel, the pages are added in tag order.
+     */
+    private <T extends MetaTag> void generateCollectionMetaTagPages(final Site site, Collection collection,
+                                                                    final Page templatePage, List<T> tags,
+                                                                    List<Page> allNewPages) {
+        //pages of each tag
+        final Map<MetaTag, List<Page>> generatedPages = new ConcurrentHashMap<MetaTag, List<Page>>();
+        RunnableTask<T> task = new RunnableTask<T>() {
+            @Override
+            public void run(T tag) {
+                List<Page> pages = generateMetaTagPages(site, templatePage, tag);
+                if (pages != null) {
+                    generatedPages.put(tag, pages);
+                }
             }
+        };
 
-            SimplePage tagPage = new SimplePage(site, templatePage, null);
-
-            String title = tag.getName();
-            String titlePrefix = getProperty(templatePage, tag.getConfig(), "title_prefix");
-            if (titlePrefix != null) {
-                title = titlePrefix + title;
+        TaskExecutor taskExecutor = site instanceof SiteImpl ? ((SiteImpl) site).getTaskExecutor() : null;
+        if (taskExecutor != null && tags.size() > 1) {
+            //initialize before used by threads
+            site.getFactory().getPaginationUpdater();
+            taskExecutor.run(tags, task);
+        } else {
+            for (T tag : tags) {
+                task.run(tag);
             }
-            tagPage.setTitle(title);
+        }
 
-            //url encode and decode
-            Boolean tagUrlEncode = getProperty(templatePage, tag.getConfig(), "url_encode");
-            Boolean tagUrlDecode = getProperty(templatePage, tag.getConfig(), "url_decode");
-            if (tagUrlEncode != null && tagUrlEncode.booleanValue()) {
-                tagPage.setUrlEncode(true);
-            }
-            if (tagUrlDecode != null && tagUrlDecode.booleanValue()) {
-                tagPage.setUrlDecode(true);
+        for (T tag : tags) {
+            List<Page> pages = generatedPages.get(tag);
+            if (pages != null) {
+                allNewPages.addAll(pages);
             }
+        }
+    }
 
-            String permalink = getProperty(templatePage, tag.getConfig(), "permalink");
-            String url = "/" + tag.getSlug() + "/";
-            if (permalink != null) {
-                url = AbstractFreeMarkerRenderer.process(permalink, tag);
-            } else {
-                if (tag instanceof Category) {
-                    url = "/" + ((Category) tag).getPath() + "/";
-                }
-                String tagDir = getProperty(templatePage, tag.getConfig(), "output_dir");
-                if (tagDir != null) {
-                    url = tagDir + url;
-                }
+    /**
+     * @return the tag page and its paginated pages, or null if the tag has no pages
+     */
+    private List<Page> generateMetaTagPages(Site site, Page templatePage, MetaTag tag) {
+        List<Page> pages = tag.getPages();
+        if (pages.isEmpty()) {
+            return null;
+        }
+        List<Page> newPages = new ArrayList<Page>();
+
+        SimplePage tagPage = new SimplePage(site, templatePage, null);
+
+        String title = tag.getName();
+        String titlePrefix = getProperty(templatePage, tag.getConfig(), "title_prefix");
+        if (titlePrefix != null) {
+            title = titlePrefix + title;
+        }
+        tagPage.setTitle(title);
+
+        //url encode and decode
+        Boolean tagUrlEncode = getProperty(templatePage, tag.getConfig(), "url_encode");
+        Boolean tagUrlDecode = getProperty(templatePage, tag.getConfig(), "url_decode");
+        if (tagUrlEncode != null && tagUrlEncode.booleanValue()) {
+            tagPage.setUrlEncode(true);
+        }
+        if (tagUrlDecode != null && tagUrlDecode.booleanValue()) {
+            tagPage.setUrlDecode(true);
+        }
+
+        String permalink = getProperty(templatePage, tag.getConfig(), "permalink");
+        String url = "/" + tag.getSlug() + "/";
+        if (permalink != null) {
+            url = AbstractFreeMarkerRenderer.process(permalink, tag);
+        } else {
+            if (tag instanceof Category) {
+                url = "/" + ((Category) tag).getPath() + "/";
+            }
+            String tagDir = getProperty(templatePage, tag.getConfig(), "output_dir");
+            if (tagDir != null) {
+                url = tagDir + url;
             }
-            tagPage.setUrl(url);
+        }
+        tagPage.setUrl(url);
 
-            //require render content
-            //tagPage.set("render", true);
+        //require render content
+        //tagPage.set("render", true);
 
-            tagPage.set("metaTag", tag);
-            tag.setPage(tagPage);
-            allNewPages.add(tagPage);
+        tagPage.setMetaTag(tag);
+        tag.setPage(tagPage);
+        newPages.add(tagPage);
 
-            //List<Page> pages = tag.getPages();
-            //Collections.sort(pages, PageComparator.INSTANCE);
+        //List<Page> pages = tag.getPages();
+        //Collections.sort(pages, PageComparator.INSTANCE);
 
-            Number paginate = getProperty(templatePage, tag.getConfig(), "paginate");
-            if (paginate != null && paginate.intValue() > 0) {
-                List<Page> pagedList = PaginationUtils.paginate(site, tagPage, pages, paginate.intValue());
-                if (pagedList != null) {
-                    allNewPages.addAll(pagedList);
-                }
+        Number paginate = getProperty(templatePage, tag.getConfig(), "paginate");
+        if (paginate != null && paginate.intValue() > 0) {
+            List<Page> pagedList = PaginationUtils.paginate(site, tagPage, pages, paginate.intValue());
+            if (pagedList != null) {
+                newPages.addAll(pagedList);
             }
         }
+        return newPages;
     }
 
     private <T> T getProperty(Page templatePage, Config metaTagConfig, String propertyName) {
@@ -177,7 +222,14 @@ public class CollectionMetaTagPageGenerator implements Generator {
     }
 
 
-    private Page lookupTemplatePage(final String identity, List<Page> allPages, Set<Page> templatePages) {
+    /**
+     * @return pages have the key if the site indexed them, otherwise all pages
+     */
+    private List<Page> getPagesByMetaKey(Site site, String key) {
+        return site instanceof SiteImpl ? ((SiteImpl) site).getPagesByMetaKey(key) : site.getAllPages();
+    }
+
+    private Page lookupTemplatePage(final String identity, List<Page> pages, Set<Page> templatePages) {
         Predicate<Page> predicate = new Predicate<Page>() {
             @Override
             public boolean apply(Page input) {
@@ -187,7 +239,7 @@ public class CollectionMetaTagPageGenerator implements Generator {
 
         Page page = Iterables.tryFind(templatePages, predicate).orNull();
         if (page == null) {
-            page = Iterables.tryFind(allPages, predicate).orNull();
+            page = Iterables.tryFind(pages, predicate).orNull();
         }
 
 //        if(page == null){
@@ -205,7 +257,8 @@ public class CollectionMetaTagPageGenerator implements Generator {
         for (String categoryMeta : categoryMetaNames) {
             String templateIdentity = "category_template_" + collection.getName() + "_" + categoryMeta;
 
-            Page templatePage = lookupTemplatePage(templateIdentity, site.getAllPages(), templatePages);
+            Page templatePage = lookupTemplatePage(templateIdentity, getPagesByMetaKey(site, templateIdentity),
+                    templatePages);
 
             if (templatePage == null) {
                 log.warn("Template page for collection '{}', category '{}' not found.", collection.getName(), categoryMeta);
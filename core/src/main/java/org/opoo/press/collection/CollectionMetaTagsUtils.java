@@ -15,12 +15,11 @@
  */
 package org.opoo.press.collection;
 
-import com.google.common.base.Predicate;
-import com.google.common.collect.Iterables;
 import org.opoo.press.Category;
 import org.opoo.press.Collection;
 import org.opoo.press.Config;
 import org.opoo.press.Factory;
+import org.opoo.press.MetaTag;
 import org.opoo.press.Page;
 import org.opoo.press.Tag;
 import org.opoo.press.collection.config.CategoryConfig;
@@ -153,6 +152,20 @@ public class CollectionMetaTagsUtils {
 
     public static void processPageMetaTags(Collection collection, CollectionConfig configuration,
                                            Factory factory, Page page) {
+        processPageMetaTags(collection, configuration, factory, page, new HashMap<String, MetaTagIndex<?>>());
+    }
+
+    /**
+     * Process tags and categories of the page.
+     *
+     * @param collection the collection
+     * @param configuration collection configuration
+     * @param factory the factory
+     * @param page the page
+     * @param indexes indexes of tag and category lists of collection, reused for all pages of the collection
+     */
+    public static void processPageMetaTags(Collection collection, CollectionConfig configuration,
+                                           Factory factory, Page page, Map<String, MetaTagIndex<?>> indexes) {
         if (page.getSource() == null || page.getSource().getMeta() == null) {
             return;
         }
@@ -160,56 +173,62 @@ public class CollectionMetaTagsUtils {
         Map<String, Object> sourceMeta = page.getSource().getMeta();
         String collectionName = configuration.getName();
 
-        processPageTags(collection, configuration, factory, page, collectionName, sourceMeta);
-        processPageCategories(collection, configuration, factory, page, collectionName, sourceMeta);
+        processPageTags(collection, configuration, factory, page, collectionName, sourceMeta, indexes);
+        processPageCategories(collection, configuration, factory, page, collectionName, sourceMeta, indexes);
     }
 
+    @SuppressWarnings("unchecked")
+    private static <T extends MetaTag> MetaTagIndex<T> getIndex(Map<String, MetaTagIndex<?>> indexes, String key,
+                                                                List<T> list) {
+        MetaTagIndex<T> index = (MetaTagIndex<T>) indexes.get(key);
+        if (index == null) {
+            index = new MetaTagIndex<T>(list);
+            indexes.put(key, index);
+        }
+        return index;
+    }
 
     private static void processPageTags(Collection collection, CollectionConfig configuration,
                                         Factory factory, Page page,
-                                        String collectionName, Map<String, Object> sourceMeta) {
+                                        String collectionName, Map<String, Object> sourceMeta,
+                                        Map<String, MetaTagIndex<?>> indexes) {
         TagConfig[] tags = configuration.getTags();
         if (tags == null || tags.length == 0) {
             return;
         }
 
         for (TagConfig tagConfiguration : tags) {
-            processPageTag(collection, configuration, factory, page, tagConfiguration, collectionName, sourceMeta);
+            processPageTag(collection, configuration, factory, page, tagConfiguration, collectionName, sourceMeta,
+                    indexes);
         }
     }
 
     private static void processPageTag(Collection collection, CollectionConfig configuration,
                                        Factory factory, Page page, TagConfig tagConfiguration,
-                                       String collectionName, Map<String, Object> sourceMeta) {
+                                       String collectionName, Map<String, Object> sourceMeta,
+                                       Map<String, MetaTagIndex<?>> indexes) {
         List<String> stringTags = MetaTagsUtils.getStringTags(sourceMeta, tagConfiguration);
         if (stringTags == null || stringTags.isEmpty()) {
             return;
         }
 
         String tagMeta = tagConfiguration.getMeta();
-        List<Tag> tags = collection.getTagsHolder().get(tagConfiguration.getMetaForCollection());
+        String metaForCollection = tagConfiguration.getMetaForCollection();
+        MetaTagIndex<Tag> index = getIndex(indexes, "tag:" + metaForCollection,
+                collection.getTagsHolder().get(metaForCollection));
 
-        for (final String stringTag : stringTags) {
-            Tag tag = Iterables.tryFind(tags, new Predicate<Tag>() {
-                @Override
-                public boolean apply(Tag tag) {
-                    return tag.isNameOrSlug(stringTag);
-                }
-            }).orNull();
+        for (String stringTag : stringTags) {
+            Tag tag = index.get(stringTag);
 
             if (tag == null) {
                 tag = factory.createTag(collectionName + "-" + tagMeta, stringTag);
                 if (tag instanceof AbstractMetaTag) {
                     ((AbstractMetaTag) tag).setConfig(tagConfiguration);
                 }
-                tags.add(tag);
+                index.add(tag);
             }
 
-            //tag.getPages().add(page);
-            List<Page> pages = tag.getPages();
-            if (!pages.contains(page)) {
-                pages.add(page);
-            }
+            index.addPage(tag, page);
             page.getTagsHolder().add(tagMeta, tag);
         }
     }
@@ -217,7 +236,8 @@ public class CollectionMetaTagsUtils {
 
     private static void processPageCategories(Collection collection, CollectionConfig configuration,
                                               Factory factory, Page page,
-                                              String collectionName, Map<String, Object> sourceMeta) {
+                                              String collectionName, Map<String, Object> sourceMeta,
+                                              Map<String, MetaTagIndex<?>> indexes) {
         CategoryConfig[] categories = configuration.getCategories();
         if (categories == null || categories.length == 0) {
             return;
@@ -225,41 +245,35 @@ public class CollectionMetaTagsUtils {
 
         for (CategoryConfig categoryConfiguration : categories) {
             processPageCategory(collection, configuration, factory, page, categoryConfiguration,
-                    collectionName, sourceMeta);
+                    collectionName, sourceMeta, indexes);
         }
     }
 
     private static void processPageCategory(Collection collection, CollectionConfig configuration,
                                             Factory factory, Page page, CategoryConfig categoryConfiguration,
-                                            String collectionName, Map<String, Object> sourceMeta) {
+                                            String collectionName, Map<String, Object> sourceMeta,
+                                            Map<String, MetaTagIndex<?>> indexes) {
         List<String> stringCategories = MetaTagsUtils.getStringTags(sourceMeta, categoryConfiguration);
         if (stringCategories == null || stringCategories.isEmpty()) {
             return;
         }
 
         String categoryMeta = categoryConfiguration.getMeta();
-        List<Category> categories = collection.getCategoriesHolder().get(categoryConfiguration.getMetaForCollection());
+        String metaForCollection = categoryConfiguration.getMetaForCollection();
+        MetaTagIndex<Category> index = getIndex(indexes, "category:" + metaForCollection,
+                collection.getCategoriesHolder().get(metaForCollection));
 
-        for (final String stringCategory : stringCategories) {
-            Category category = Iterables.tryFind(categories, new Predicate<Category>() {
-                @Override
-                public boolean apply(Category input) {
-                    return input.isNameOrSlug(stringCategory);
-                }
-            }).orNull();
+        for (String stringCategory : stringCategories) {
+            Category category = index.get(stringCategory);
             if (category == null) {
                 category = factory.createCategory(collectionName + "-" + categoryMeta, stringCategory);
                 if (category instanceof AbstractMetaTag) {
                     ((AbstractMetaTag) category).setConfig(categoryConfiguration);
                 }
-                categories.add(category);
+                index.add(category);
             }
 
-            //category.getPages().add(page);
-            List<Page> pages = category.getPages();
-            if (!pages.contains(page)) {
-                pages.add(page);
-            }
+            index.addPage(category, page);
             page.getCategoriesHolder().add(categoryMeta, category);
         }
     }
@@ -15,7 +15,6 @@
  */
 package org.opoo.press.collection;
 
-import com.google.common.base.Predicate;
 import org.opoo.press.Category;
 import org.opoo.press.Factory;
 import org.opoo.press.ListHolder;
@@ -30,12 +29,17 @@ import org.opoo.press.collection.config.CollectionConfig;
 import org.opoo.press.collection.config.CollectionConfigResolver;
 import org.opoo.press.collection.config.FilterConfig;
 import org.opoo.press.collection.config.impl.CollectionConfigResolverImpl;
+import org.opoo.press.impl.SiteImpl;
+import org.opoo.press.task.RunnableTask;
+import org.opoo.press.task.TaskExecutor;
 import org.opoo.press.util.ClassUtils;
 import org.opoo.press.util.PageUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -46,6 +50,9 @@ import java.util.Set;
 public class CollectionProcessor extends ProcessorAdapter {
     private static final Logger log = LoggerFactory.getLogger(CollectionProcessor.class);
 
+    //pages filtered by a thread at least
+    private static final int MIN_CHUNK_SIZE = 256;
+
     private CollectionConfigResolver collectionConfigResolver = new CollectionConfigResolverImpl();
 
     @Override
@@ -65,70 +72,81 @@ public class CollectionProcessor extends ProcessorAdapter {
             return;
         }
 
+        List<CollectionBuilder> builders = new ArrayList<CollectionBuilder>();
         for (Map.Entry<String, ?> configEntry : collectionsMap.entrySet()) {
             String collectionName = configEntry.getKey();
             Map<String, ?> collectionConfiguration = (Map<String, ?>) configEntry.getValue();
-            createCollection(site, collectionName, collectionConfiguration);
+            builders.add(new CollectionBuilder(site, collectionName, collectionConfiguration, builders.size()));
         }
-    }
-
-    private void createCollection(Site site, String collectionName, Map<String, ?> collectionConfigurationMap) {
-        CollectionConfig configuration = collectionConfigResolver.resolve(collectionName,
-                collectionConfigurationMap);
-
-        CollectionImpl collection = new CollectionImpl(site, configuration);
-
-        log.debug("Initializing default tags and categories for collection: {}", collectionName);
-        Factory factory = site.getFactory();
-        CollectionMetaTagsUtils.initializeDefaultTags(collection, configuration, factory);
-        CollectionMetaTagsUtils.initializeDefaultCategories(collection, configuration, factory);
-
-        FilterConfig filterConfig = configuration.getFilter();
-        Predicate<Page> filter = createFilter(site, factory, filterConfig);
 
-        log.debug("Filter pages by: " + filter);
+        List<PageChunk> chunks = partition(site, builders);
 
-        for (Page page : site.getAllPages()) {
-            if (filter.apply(page)) {
-                //collection.addPage(page);
-                collection.getPages().add(page);
+        for (CollectionBuilder builder : builders) {
+            builder.build(chunks);
+        }
+    }
 
-                //collection not serializable
-                //page.set("collection", collection);
-                log.debug("Add page '{}' to collection '{}'", page.getUrl(), collectionName);
+    /**
+     * Route all pages to the matched collections in one pass. The page chunks are
+     * filtered by the built-in filters in parallel, other filters are applied in
+     * current thread.
+     *
+     * @return page chunks in page order
+     */
+    private List<PageChunk> partition(Site site, List<CollectionBuilder> builders) {
+        List<Page> pages = site.getAllPages();
+        TaskExecutor taskExecutor = site instanceof SiteImpl ? ((SiteImpl) site).getTaskExecutor() : null;
+        if (taskExecutor != null && taskExecutor.getThreadsCount() <= 1) {
+            taskExecutor = null;
+        }
 
-                log.debug("Processing tags and categories for page: {}", page.getUrl());
-                CollectionMetaTagsUtils.processPageMetaTags(collection, configuration, factory, page);
+        final List<CollectionBuilder> parallel = new ArrayList<CollectionBuilder>();
+        List<CollectionBuilder> serial = new ArrayList<CollectionBuilder>();
+        for (CollectionBuilder builder : builders) {
+            if (taskExecutor != null && isBuiltIn(builder.filter)) {
+                parallel.add(builder);
+            } else {
+                serial.add(builder);
             }
         }
 
-        //if collection name is 'post' or config has property 'sort'
-        Boolean sortable = configuration.get("sortable");
-        if (collectionName.equals("post")
-                || sortable != null && sortable) {
-
-//            Collections.sort(collection.getPages(), PageComparator.INSTANCE);
-            PageUtils.sort(collection.getPages());
-            PageUtils.sort(collection.getCategoriesHolder(), true);
-            PageUtils.sort(collection.getTagsHolder(), true);
-        } else {
-            PageUtils.sort(collection.getCategoriesHolder(), false);
-            PageUtils.sort(collection.getTagsHolder(), false);
+        int chunkSize = Math.max(pages.size(), 1);
+        if (!parallel.isEmpty()) {
+            chunkSize = Math.max(MIN_CHUNK_SIZE, pages.size() / (taskExecutor.getThreadsCount() * 4) + 1);
         }
 
-        site.getCollections().put(collectionName, collection);
-
-        if (collectionName.equals("post")) {
-            log.debug("Set post collection tags and categories to site.");
-            List<Category> categories = collection.getCategoriesHolder().get("category");
-            List<Tag> tags = collection.getTagsHolder().get("tag");
-
-            //Collections.sort(categories, MetaTagComparator.INSTANCE);
-            //Collections.sort(tags, MetaTagComparator.INSTANCE);
+        List<PageChunk> chunks = new ArrayList<PageChunk>();
+        for (int from = 0; from < pages.size(); from += chunkSize) {
+            chunks.add(new PageChunk(pages.subList(from, Math.min(from + chunkSize, pages.size())), builders.size()));
+        }
 
-            site.set("tags", tags);
-            site.set("categories", categories);
+        if (!parallel.isEmpty()) {
+            RunnableTask<PageChunk> task = new RunnableTask<PageChunk>() {
+                @Override
+                public void run(PageChunk chunk) {
+                    chunk.filter(parallel);
+                }
+            };
+            if (chunks.size() > 1) {
+                taskExecutor.run(chunks, task);
+            } else {
+                task.run(chunks.get(0));
+            }
         }
+        if (!serial.isEmpty()) {
+            for (PageChunk chunk : chunks) {
+                chunk.filter(serial);
+            }
+        }
+        return chunks;
+    }
+
+    /**
+     * Filters of this package are stateless and applied in parallel, filters of
+     * plugins are not required to be thread safe.
+     */
+    private static boolean isBuiltIn(Filter filter) {
+        return filter.getClass().getName().startsWith(Filter.class.getPackage().getName() + ".");
     }
 
     private Filter createFilter(Site site, Factory factory, FilterConfig filterConfig) {
@@ -153,6 +171,110 @@ public class CollectionProcessor extends ProcessorAdapter {
         }
     }
 
+    /**
+     * Pages of a chunk matched by each collection.
+     */
+    private static class PageChunk {
+        private final List<Page> pages;
+        private final List<List<Page>> matches;
+
+        PageChunk(List<Page> pages, int collections) {
+            this.pages = pages;
+            this.matches = new ArrayList<List<Page>>(collections);
+            for (int i = 0; i < collections; i++) {
+                matches.add(new ArrayList<Page>());
+            }
+        }
+
+        void filter(List<CollectionBuilder> builders) {
+            for (Page page : pages) {
+                for (CollectionBuilder builder : builders) {
+                    if (builder.filter.apply(page)) {
+                        matches.get(builder.index).add(page);
+                    }
+                }
+            }
+        }
+    }
+
+    private class CollectionBuilder {
+        private final Site site;
+        private final String collectionName;
+        private final CollectionConfig configuration;
+        private final CollectionImpl collection;
+        private final Factory factory;
+        private final Filter filter;
+        private final int index;
+
+        CollectionBuilder(Site site, String collectionName, Map<String, ?> collectionConfigurationMap, int index) {
+            this.site = site;
+            this.collectionName = collectionName;
+            this.index = index;
+            this.configuration = collectionConfigResolver.resolve(collectionName, collectionConfigurationMap);
+            this.collection = new CollectionImpl(site, configuration);
+            this.factory = site.getFactory();
+
+            log.debug("Initializing default tags and categories for collection: {}", collectionName);
+            CollectionMetaTagsUtils.initializeDefaultTags(collection, configuration, factory);
+            CollectionMetaTagsUtils.initializeDefaultCategories(collection, configuration, factory);
+
+            FilterConfig filterConfig = configuration.getFilter();
+            filter = createFilter(site, factory, filterConfig);
+
+            log.debug("Filter pages by: " + filter);
+        }
+
+        /**
+         * Add the matched pages in page order, process tags and categories, sort and
+         * register the collection.
+         */
+        void build(List<PageChunk> chunks) {
+            //name/slug indexes of tags and categories
+            Map<String, MetaTagIndex<?>> indexes = new HashMap<String, MetaTagIndex<?>>();
+            for (PageChunk chunk : chunks) {
+                for (Page page : chunk.matches.get(index)) {
+                    //collection.addPage(page);
+                    collection.getPages().add(page);
+
+                    //collection not serializable
+                    //page.set("collection", collection);
+                    log.debug("Add page '{}' to collection '{}'", page.getUrl(), collectionName);
+
+                    log.debug("Processing tags and categories for page: {}", page.getUrl());
+                    CollectionMetaTagsUtils.processPageMetaTags(collection, configuration, factory, page, indexes);
+                }
+            }
+
+            //if collection name is 'post' or config has property 'sort'
+            Boolean sortable = configuration.get("sortable");
+            if (collectionName.equals("post")
+                    || sortable != null && sortable) {
+
+//                Collections.sort(collection.getPages(), PageComparator.INSTANCE);
+                PageUtils.sort(collection.getPages());
+                PageUtils.sort(collection.getCategoriesHolder(), true);
+                PageUtils.sort(collection.getTagsHolder(), true);
+            } else {
+                PageUtils.sort(collection.getCategoriesHolder(), false);
+                PageUtils.sort(collection.getTagsHolder(), false);
+            }
+
+            site.getCollections().put(collectionName, collection);
+
+            if (collectionName.equals("post")) {
+                log.debug("Set post collection tags and categories to site.");
+                List<Category> categories = collection.getCategoriesHolder().get("category");
+                List<Tag> tags = collection.getTagsHolder().get("tag");
+
+                //Collections.sort(categories, MetaTagComparator.INSTANCE);
+                //Collections.sort(tags, MetaTagComparator.INSTANCE);
+
+                site.set("tags", tags);
+                site.set("categories", categories);
+            }
+        }
+    }
+
     @Override
     public void postGenerate(Site site) {
         Set<Page> siteTemplatePages = site.get("template_pages");
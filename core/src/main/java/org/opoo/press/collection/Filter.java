@@ -19,6 +19,12 @@ import com.google.common.base.Predicate;
 import org.opoo.press.Page;
 
 /**
+ * Selects the pages of a collection.
+ * <p>
+ * Filters of plugins are applied to the pages in one thread. The built-in
+ * filters in this package (and its sub-packages) are applied to the pages in
+ * parallel, so they must be stateless or thread safe.
+ *
  * @author Alex Lin
  */
 public interface Filter extends Predicate<Page> {
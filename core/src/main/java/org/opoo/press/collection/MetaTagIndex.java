@@ -0,0 +1,97 @@
+/*
+ * Copyright 2013 Alex Lin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opoo.press.collection;
+
+import org.opoo.press.MetaTag;
+import org.opoo.press.Page;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Index of a tag (category) list of collection, by name and slug. A name or slug
+ * is resolved to the first tag in list order, the same as a scan with
+ * {@link MetaTag#isNameOrSlug(String)}. Pages of each tag are tracked by a set,
+ * the page list keeps the insertion order.
+ * <p>
+ * The index is used while building the collection, tags must be added through it.
+ *
+ * @author Alex Lin
+ */
+public class MetaTagIndex<T extends MetaTag> {
+    private final List<T> tags;
+    private final Map<String, T> tagsByNameOrSlug = new HashMap<String, T>();
+    private final Map<T, Set<Page>> pagesByTag = new HashMap<T, Set<Page>>();
+
+    public MetaTagIndex(List<T> tags) {
+        this.tags = tags;
+        for (T tag : tags) {
+            index(tag);
+        }
+    }
+
+    private void index(T tag) {
+        String slug = tag.getSlug();
+        if (slug != null && !tagsByNameOrSlug.containsKey(slug)) {
+            tagsByNameOrSlug.put(slug, tag);
+        }
+        String name = tag.getName();
+        if (name != null && !tagsByNameOrSlug.containsKey(name)) {
+            tagsByNameOrSlug.put(name, tag);
+        }
+    }
+
+    /**
+     * @param nameOrSlug name or slug
+     * @return the tag, or null if not found
+     */
+    public T get(String nameOrSlug) {
+        return tagsByNameOrSlug.get(nameOrSlug);
+    }
+
+    /**
+     * Append the tag to the list.
+     *
+     * @param tag the tag
+     */
+    public void add(T tag) {
+        tags.add(tag);
+        index(tag);
+    }
+
+    /**
+     * Add the page to the pages of the tag if it is not there yet.
+     *
+     * @param tag the tag
+     * @param page the page
+     * @return true if the page is added
+     */
+    public boolean addPage(T tag, Page page) {
+        Set<Page> pages = pagesByTag.get(tag);
+        if (pages == null) {
+            pages = new HashSet<Page>(tag.getPages());
+            pagesByTag.put(tag, pages);
+        }
+        if (pages.add(page)) {
+            tag.getPages().add(page);
+            return true;
+        }
+        return false;
+    }
+}
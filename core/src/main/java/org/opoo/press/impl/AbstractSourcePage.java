@@ -58,7 +58,6 @@ public abstract class AbstractSourcePage extends SimplePage implements Base, Con
         setPager(pager);
 
         String title = (String) source.getMeta().get("title");
-        String content = source.getContent();
         String layout = (String) source.getMeta().get("layout");
         String permalink = (String) source.getMeta().get("permalink");
         String url = (String) source.getMeta().get("url");
@@ -74,7 +73,7 @@ public abstract class AbstractSourcePage extends SimplePage implements Base, Con
         boolean urlDecode = site.getConfig().get("url_decode", false);
 
         setTitle(published ? title : "[Draft]" + title);
-        setContent(content);
+        setContentFromSource();
         setLayout(layout);
         setPermalink(permalink);
         setDate(date);
@@ -136,7 +136,7 @@ public class FactoryImpl extends PluginManagerImpl implements Factory, PluginMan
         if (sourceDirectoryWalker == null) {
             sourceDirectoryWalker = getInstance(SourceDirectoryWalker.class);
             if (sourceDirectoryWalker == null) {
-                sourceDirectoryWalker = new SourceDirectoryWalkerImpl();
+                sourceDirectoryWalker = apply(new SourceDirectoryWalkerImpl());
             }
         }
         return sourceDirectoryWalker;
@@ -18,6 +18,7 @@ package org.opoo.press.impl;
 import org.opoo.press.ProcessorAdapter;
 import org.opoo.press.Renderer;
 import org.opoo.press.Site;
+import org.opoo.press.renderer.FreeMarkerRenderer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -25,12 +26,17 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.OutputStreamWriter;
+import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 /**
+ * Render the templates defined by <code>pre_render</code> before the pages. The
+ * output is a working template of the FreeMarker renderer, held in memory, or a
+ * file in the working template directory for other renderers.
+ *
  * @author Alex Lin
  */
 public class PreRenderProcessor extends ProcessorAdapter {
@@ -46,9 +52,10 @@ public class PreRenderProcessor extends ProcessorAdapter {
 
         Renderer renderer = site.getRenderer();
         File workingTemplateDir = new File(site.getWorking(), "templates");
-        workingTemplateDir.mkdirs();
-
-        log.debug("Pre render content in directory: {}", workingTemplateDir);
+        if (!(renderer instanceof FreeMarkerRenderer)) {
+            workingTemplateDir.mkdirs();
+            log.debug("Pre render content in directory: {}", workingTemplateDir);
+        }
 
         for (Map<String, String> preRenderItem : preRenderConfiguration) {
             String template = preRenderItem.get("template");
@@ -71,6 +78,13 @@ public class PreRenderProcessor extends ProcessorAdapter {
             map.put("opoopress", site.getConfig().get("opoopress"));
             map.put("theme", site.getTheme());
 
+            if (renderer instanceof FreeMarkerRenderer) {
+                StringWriter writer = new StringWriter();
+                renderer.render(template, map, writer);
+                ((FreeMarkerRenderer) renderer).putWorkingTemplate(output, writer.toString());
+                return;
+            }
+
             File outputFile = new File(workingTemplateDir, output);
             OutputStreamWriter writer = new OutputStreamWriter(new FileOutputStream(outputFile), "UTF-8");
             renderer.render(template, map, writer);
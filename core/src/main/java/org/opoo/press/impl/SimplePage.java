@@ -24,25 +24,32 @@ import org.opoo.press.Converter;
 import org.opoo.press.Excerptable;
 import org.opoo.press.Highlighter;
 import org.opoo.press.ListHolder;
+import org.opoo.press.MetaTag;
 import org.opoo.press.Page;
 import org.opoo.press.Pager;
 import org.opoo.press.Renderer;
 import org.opoo.press.Site;
 import org.opoo.press.Source;
 import org.opoo.press.Tag;
+import org.opoo.press.build.DependencyRecorder;
+import org.opoo.press.build.ChannelWriter;
+import org.opoo.press.build.OutputWriter;
+import org.opoo.press.cache.ConversionCache;
+import org.opoo.press.cache.PageContentCache;
+import org.opoo.press.renderer.StreamingRenderer;
+import org.opoo.press.source.TemplateAwareSource;
+import org.opoo.util.LayeredMap;
 import org.opoo.util.MapUtils;
 import org.opoo.util.URLUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.cache.Cache;
 import java.io.File;
 import java.io.IOException;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author Alex Lin
@@ -50,16 +57,26 @@ import java.util.concurrent.atomic.AtomicLong;
 public class SimplePage implements Page {
     private static final Logger log = LoggerFactory.getLogger(SimplePage.class);
 
+    private static final int CONTENT_LOADED = 0;
+    private static final int CONTENT_NOT_LOADED = 1;
+
     private String title;
     private String layout;
     private String permalink;
     private boolean published = true;
     private Date date;
     private Date updated;
-    private Map<String, Object> data = new HashMap<String, Object>();
+    //allocated on first set, may be the data of the page copied from
+    private Map<String, Object> data;
+    //data is the map of the page copied from, its private properties are hidden
+    private boolean dataInherited = false;
+    //data is referenced by the pages copied from this page, copy before modify
+    private volatile boolean dataShared = false;
     private Pager pager;
     private Page next;
     private Page previous;
+    //the tag of the generated tag page, not kept in data to keep the data shared
+    private MetaTag metaTag;
     private ListHolder<Category> categoriesHolder = new ListHolderImpl<Category>();
     private ListHolder<Tag> tagsHolder = new ListHolderImpl<Tag>();
 
@@ -72,6 +89,12 @@ public class SimplePage implements Page {
     private boolean urlEncode;
     private boolean urlDecode;
 
+    private volatile int contentState = CONTENT_LOADED;
+    //rendered output, kept until written
+    private volatile String renderedContent;
+    //content is (converted from) the source content
+    private volatile boolean contentFromSource = false;
+
     protected final Site site;
     protected final ContentHolder contentHolder;
 
@@ -85,9 +108,23 @@ public class SimplePage implements Page {
     }
 
     public SimplePage(Site site, Page page, Pager pager) {
+        this(site, page, pager, true);
+    }
+
+    /**
+     * Copy the page.
+     *
+     * @param site the site
+     * @param page the page to copy
+     * @param pager pager of the new page, or null to use the pager of the page
+     * @param copyContent whether copy the content, the subclass may provide the content itself
+     */
+    protected SimplePage(Site site, Page page, Pager pager, boolean copyContent) {
         this(site);
         this.setTitle(page.getTitle());
-        this.setContent(page.getContent());
+        if (copyContent) {
+            this.setContent(page.getContent());
+        }
         this.setDate(page.getDate());
         this.setLayout(page.getLayout());
         this.setCategoriesHolder(page.getCategoriesHolder());
@@ -107,7 +144,15 @@ public class SimplePage implements Page {
             this.urlDecode = sp.isUrlDecode();
             this.urlEncode = sp.isUrlEncode();
             //this.data = new LinkedHashMap<String, Object>(sp.data);
-            MapUtils.copy(this.data, sp.data);
+            //MapUtils.copy(this.data, sp.data);
+            //share the data, copy on write
+            if (sp.data != null) {
+                sp.dataShared = true;
+                this.data = sp.data;
+                this.dataInherited = true;
+            }
+            this.contentFromSource = sp.contentFromSource;
+            this.metaTag = sp.metaTag;
         }
     }
 
@@ -147,11 +192,73 @@ public class SimplePage implements Page {
 
     @Override
     public String getContent() {
+        DependencyRecorder.record(this);
+        if (contentState != CONTENT_LOADED) {
+            loadContent();
+        }
         return contentHolder.getContent();
     }
 
     public void setContent(String content) {
         contentHolder.setContent(content);
+        contentState = CONTENT_LOADED;
+        contentFromSource = false;
+        //set after rendered, e.g. by Processor.postRender(), it is what to write
+        renderedContent = null;
+    }
+
+    /**
+     * The content will be loaded from source on first access.
+     */
+    protected void setContentFromSource() {
+        contentHolder.setContent(null);
+        contentState = CONTENT_NOT_LOADED;
+        contentFromSource = true;
+    }
+
+    /**
+     * Whether the content is known to contain no template syntax, i.e. it is
+     * (converted from) the content of a source scanned on read.
+     *
+     * @return true if the content need not be rendered
+     * @see TemplateAwareSource
+     */
+    public boolean isTemplateFree() {
+        if (!contentFromSource) {
+            return false;
+        }
+        Source source = getSource();
+        return source instanceof TemplateAwareSource && !((TemplateAwareSource) source).hasTemplateSyntax();
+    }
+
+    private synchronized void loadContent() {
+        if (contentState == CONTENT_LOADED) {
+            return;
+        }
+
+        contentHolder.setContent(getSource().getContent());
+        contentState = CONTENT_LOADED;
+    }
+
+    /**
+     * The rendered output of the page. The content of the page stays the
+     * (converted) content after rendering, which is what other pages read.
+     *
+     * @return the rendered output, or the content if the page is not rendered
+     */
+    public String getRenderedContent() {
+        String rendered = renderedContent;
+        return rendered != null ? rendered : getContent();
+    }
+
+    /**
+     * Release the rendered output after the page written. The converted content
+     * is kept, other pages (index, feed, excerpts) may still read it, but it is
+     * evicted from the page cache.
+     */
+    public void releaseContent() {
+        renderedContent = null;
+        contentHolder.evict();
     }
 
     @Override
@@ -245,9 +352,13 @@ public class SimplePage implements Page {
         if ("convertedContent".equals(name)) {
             return (T) "";
         }
-        if (data.containsKey(name)) {
+        if (data != null && data.containsKey(name)
+                && !(dataInherited && name.startsWith(MapUtils.PRIVATE_KEY_PREFIX))) {
             return (T) data.get(name);
         }
+        if (metaTag != null && "metaTag".equals(name)) {
+            return (T) metaTag;
+        }
         Source source = getSource();
         if (source != null) {
             return (T) source.getMeta().get(name);
@@ -257,7 +368,36 @@ public class SimplePage implements Page {
 
     @Override
     public <T> void set(String name, T value) {
-        MapUtils.put(data, name, value);
+        if (value == null && data == null) {
+            return;
+        }
+        MapUtils.put(getWritableData(), name, value);
+    }
+
+    private Map<String, Object> getWritableData() {
+        if (data == null) {
+            data = new HashMap<String, Object>();
+            if (site instanceof SiteImpl) {
+                ((SiteImpl) site).pageDataSet(this);
+            }
+        } else if (dataInherited) {
+            Map<String, Object> map = new HashMap<String, Object>();
+            MapUtils.copy(map, data);
+            data = map;
+            dataInherited = false;
+            dataShared = false;
+        } else if (dataShared) {
+            data = new HashMap<String, Object>(data);
+            dataShared = false;
+        }
+        return data;
+    }
+
+    /**
+     * @return true if the page has data set by {@link #set(String, Object)}, or shared with the page copied
+     */
+    boolean hasData() {
+        return data != null;
     }
 
     public boolean isUrlEncode() {
@@ -299,10 +439,20 @@ public class SimplePage implements Page {
                 return;
             }
 
-            setContent(converter.convert(content));
+            boolean fromSource = contentFromSource;
+            setContent(convert(converter, content));
+            contentFromSource = fromSource;
         }
     }
 
+    /**
+     * Convert the content, reuse the result of previous builds if possible.
+     */
+    protected String convert(Converter converter, String content) {
+        ConversionCache cache = site instanceof SiteImpl ? ((SiteImpl) site).getConversionCache() : null;
+        return cache != null ? cache.convert(converter, content) : converter.convert(content);
+    }
+
     @Override
     public void render(Renderer renderer, Highlighter highlighter, Map<String, Object> rootMap) {
         if (skipRender || renderer == null) {
@@ -314,9 +464,49 @@ public class SimplePage implements Page {
 //            return;
 //        }
 
-        rootMap = new HashMap<String, Object>(rootMap);
+        rootMap = LayeredMap.create(rootMap);
+        mergeRootMap(highlighter, rootMap);
+        renderedContent = renderer.render(this, rootMap);
+    }
+
+    /**
+     * Render the page straight into the output file if the renderer supports streaming,
+     * the rendered content is not kept in page. Otherwise render and write the page.
+     *
+     * @param renderer the renderer
+     * @param highlighter the highlighter
+     * @param rootMap data model
+     * @param dest destination directory
+     */
+    public void renderTo(Renderer renderer, Highlighter highlighter, Map<String, Object> rootMap, File dest) {
+        if (skipRender || !(renderer instanceof StreamingRenderer)) {
+            render(renderer, highlighter, rootMap);
+            write(dest);
+            return;
+        }
+
+        rootMap = LayeredMap.create(rootMap);
         mergeRootMap(highlighter, rootMap);
-        setContent(renderer.render(this, rootMap));
+
+        File file = getOutputFile(dest);
+        ChannelWriter out = null;
+        try {
+            file.getParentFile().mkdirs();
+
+            log.debug("Rendering to file {} [{}]", file, getUrl());
+            OutputWriter outputWriter = site instanceof SiteImpl ? ((SiteImpl) site).getOutputWriter() : null;
+            out = outputWriter != null ? outputWriter.openStream(file) : new ChannelWriter(file, null);
+            ((StreamingRenderer) renderer).render(this, rootMap, out);
+            out.close();
+        } catch (IOException e) {
+            log.error("Write file error: {}", file, e);
+            throw new RuntimeException(e);
+        } finally {
+            if (out != null) {
+                //not closed if render failed
+                out.abort();
+            }
+        }
     }
 
     protected void mergeRootMap(Highlighter highlighter, Map<String, Object> rootMap) {
@@ -374,7 +564,12 @@ public class SimplePage implements Page {
             file.getParentFile().mkdirs();
 
             log.debug("Writing file to {} [{}]", file, getUrl());
-            FileUtils.write(file, getContent(), "UTF-8");
+            OutputWriter outputWriter = site instanceof SiteImpl ? ((SiteImpl) site).getOutputWriter() : null;
+            if (outputWriter != null) {
+                outputWriter.write(file, getRenderedContent());
+            } else {
+                FileUtils.write(file, getRenderedContent(), "UTF-8");
+            }
         } catch (IOException e) {
             log.error("Write file error: {}", file, e);
             throw new RuntimeException(e);
@@ -399,6 +594,17 @@ public class SimplePage implements Page {
         this.outputFileExtension = outputFileExtension;
     }
 
+    /**
+     * @return the tag of the generated tag page, also available as <code>metaTag</code>
+     */
+    public MetaTag getMetaTag() {
+        return metaTag;
+    }
+
+    public void setMetaTag(MetaTag metaTag) {
+        this.metaTag = metaTag;
+    }
+
     @Override
     public Pager getPager() {
         return pager;
@@ -471,6 +677,7 @@ public class SimplePage implements Page {
         void setSource(Source source);
         String getExcerpt();
         void setExcerpt(String excerpt);
+        void evict();
     }
 
     static class SimpleContentHolder implements ContentHolder{
@@ -507,57 +714,80 @@ public class SimplePage implements Page {
         public void setExcerpt(String excerpt) {
             this.excerpt = excerpt;
         }
+
+        @Override
+        public void evict() {
+            //always in heap
+        }
     }
 
+    /**
+     * Content and excerpt are held in the page cache, which spills them to disk when
+     * the heap bound is exceeded.
+     */
     static class CachedContentHolder implements ContentHolder{
-        private static final AtomicLong ID_GEN = new AtomicLong(0);
-
-        private final Cache<String, Object> cache;
-
-        private final String contentKey;
-        private String sourceKey;
-        private final String excerptKey;
+        private final PageContentCache cache;
+        private final PageContentCache.Slot content;
+        //allocated on first set, most pages have no excerpt
+        private volatile PageContentCache.Slot excerpt;
+        private Source source;
 
-        CachedContentHolder(Cache<String, Object> cache) {
+        CachedContentHolder(PageContentCache cache) {
             this.cache = cache;
-            contentKey = String.valueOf(ID_GEN.incrementAndGet());
-            excerptKey = String.valueOf(ID_GEN.incrementAndGet());
+            this.content = cache.newSlot();
         }
 
         @Override
         public String getContent() {
-            return (String) cache.get(contentKey);
+            return content.get();
         }
 
         @Override
         public void setContent(String content) {
-            cache.put(contentKey, content);
+            this.content.set(content);
         }
 
         @Override
         public Source getSource() {
-            if(sourceKey == null) {
-                return null;
-            }
-            return (Source) cache.get(sourceKey);
+            return source;
         }
 
         @Override
         public void setSource(Source source) {
-            if(sourceKey == null) {
-                sourceKey = source.getOrigin().toString();
-            }
-            cache.put(sourceKey, source);
+            this.source = source;
         }
 
         @Override
         public String getExcerpt() {
-               return (String) cache.get(excerptKey);
+            PageContentCache.Slot slot = excerpt;
+            return slot != null ? slot.get() : null;
         }
 
         @Override
         public void setExcerpt(String excerpt) {
-            cache.put(excerptKey, excerpt);
+            PageContentCache.Slot slot = this.excerpt;
+            if (slot == null) {
+                if (excerpt == null) {
+                    return;
+                }
+                synchronized (this) {
+                    slot = this.excerpt;
+                    if (slot == null) {
+                        slot = cache.newSlot();
+                        this.excerpt = slot;
+                    }
+                }
+            }
+            //the replaced excerpt is released from the cache and the content store
+            slot.set(excerpt);
+        }
+
+        /**
+         * Spill the content, the excerpt is kept in cache for the pages list it.
+         */
+        @Override
+        public void evict() {
+            content.evict();
         }
     }
 }
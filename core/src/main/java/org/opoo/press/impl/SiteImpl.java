@@ -18,6 +18,7 @@ package org.opoo.press.impl;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang.LocaleUtils;
 import org.apache.commons.lang.StringUtils;
 import org.opoo.press.Collection;
@@ -30,6 +31,8 @@ import org.opoo.press.Origin;
 import org.opoo.press.OriginVisitor;
 import org.opoo.press.Page;
 import org.opoo.press.Post;
+import org.opoo.press.Processor;
+import org.opoo.press.ProcessorAdapter;
 import org.opoo.press.ProcessorsProcessor;
 import org.opoo.press.Renderer;
 import org.opoo.press.Site;
@@ -42,6 +45,15 @@ import org.opoo.press.SourceWalker;
 import org.opoo.press.StaticFile;
 import org.opoo.press.Theme;
 import org.opoo.press.ThemeCompiler;
+import org.opoo.press.build.DependencyGraph;
+import org.opoo.press.cache.ContentStore;
+import org.opoo.press.cache.ConversionCache;
+import org.opoo.press.cache.PageContentCache;
+import org.opoo.press.build.DependencyRecorder;
+import org.opoo.press.build.IncrementalBuild;
+import org.opoo.press.build.OutputFileList;
+import org.opoo.press.build.OutputWriter;
+import org.opoo.press.build.TemplateDependencies;
 import org.opoo.press.task.RunnableTask;
 import org.opoo.press.task.TaskExecutor;
 import org.opoo.press.util.PageUtils;
@@ -50,12 +62,10 @@ import org.opoo.util.PathUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.cache.Cache;
-import javax.cache.CacheManager;
-import javax.cache.Caching;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
+import java.lang.reflect.Method;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
@@ -65,10 +75,16 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
 
 /**
  * @author Alex Lin
@@ -100,8 +116,18 @@ public class SiteImpl implements Site, SiteBuilder {
     ;
     private AllPages allPages;
 
-    private CacheManager cacheManager;
-    Cache<String, Object> pageCache;
+    private boolean incremental = false;
+    private DependencyGraph dependencyGraph;
+    private final Map<String, Set<Page>> renderedDependencies = new ConcurrentHashMap<String, Set<Page>>();
+    private boolean writeIfChanged = true;
+    private OutputWriter outputWriter;
+    private boolean streamingRender = false;
+    private volatile List<Page> frozenPages;
+    private volatile List<Post> frozenPosts;
+
+    private ContentStore contentStore;
+    PageContentCache pageCache;
+    private ConversionCache conversionCache;
 
     public SiteImpl(SiteConfigImpl siteConfig) {
         super();
@@ -114,11 +140,17 @@ public class SiteImpl implements Site, SiteBuilder {
         this.root = config.get("root", "");
 //		this.permalink = config.getPage("permalink");
         this.showDrafts = config.get("show_drafts", false);
+        this.incremental = config.get("incremental", false);
+        this.writeIfChanged = config.get("write_if_changed", true);
+        this.streamingRender = config.get("streaming_render", false);
         boolean debug = config.get("debug", false);
 
         if (showDrafts) {
             log.info("+ Show drafts option set 'ON'");
         }
+        if (incremental) {
+            log.info("+ Incremental build option set 'ON'");
+        }
         if (debug) {
             for (Map.Entry<String, Object> en : config.entrySet()) {
                 String name = en.getKey();
@@ -190,33 +222,37 @@ public class SiteImpl implements Site, SiteBuilder {
     }
 
     public void build(boolean force) {
+        //files listed and checked once for all checks of this build
+        StaleUtils.Snapshot snapshot = StaleUtils.takeSnapshot(this);
         if (force) {
             log.info("force build.");
-            buildInternal();
+            buildInternal(true, snapshot);
             return;
         }
 
-        if (StaleUtils.isStale(this, false)) {
-            buildInternal();
+        if (snapshot.isStale(false)) {
+            buildInternal(snapshot.isConfigStale(), snapshot);
             return;
         }
 
         // only asset file(s) changed.
-        List<File> staleAssets = StaleUtils.getStaleAssets(this);
+        List<File> staleAssets = snapshot.getStaleAssets();
         if (staleAssets != null) {
             for (File staleAsset : staleAssets) {
                 //copy asset directory to destination directory
                 log.info("Copying stale asset: {}...", staleAsset);
                 try {
                     FileUtils.copyDirectory(staleAsset, dest, buildFilter());
-                    StaleUtils.saveLastBuildInfo(this);
-                    return;
                 } catch (IOException e) {
                     throw new RuntimeException("Copy stale asset exception: " + staleAsset, e);
                 }
             }
+            snapshot.save();
+            return;
         }
 
+        //record the last modified time of touched files, not hashed again next time
+        snapshot.saveManifest();
         log.info("Nothing to build - all site output files are up to date.");
     }
 
@@ -229,41 +265,140 @@ public class SiteImpl implements Site, SiteBuilder {
         FileUtils.deleteDirectory(working);
     }
 
-    private void buildInternal() {
-        prepare();
-        reset();
-        read();
-        generate();
-        convert();
-        render();
-        cleanup();
-        write();
-        close();
+    /**
+     * Build the site after source or template files changed, only the affected
+     * pages are rebuilt if incremental build enabled.
+     */
+    void rebuild() {
+        StaleUtils.Snapshot snapshot = StaleUtils.takeSnapshot(this);
+        buildInternal(!incremental || snapshot.isConfigStale(), snapshot);
+    }
+
+    private void buildInternal(boolean full, StaleUtils.Snapshot snapshot) {
+        IncrementalBuild incrementalBuild = null;
+        try {
+            prepare();
+            reset();
+            read();
+            generate();
+
+            if (incremental && !full) {
+                dependencyGraph = DependencyGraph.load(this);
+                if (dependencyGraph != null) {
+                    incrementalBuild = planIncrementalBuild(snapshot);
+                }
+            }
+
+            List<Page> convertPages = allPages;
+            List<Page> renderPages = allPages;
+            if (incrementalBuild != null) {
+                log.info("Incremental build: {} of {} pages affected.", incrementalBuild.getRenderPages().size(), allPages.size());
+                convertPages = incrementalBuild.getConvertPages();
+                renderPages = incrementalBuild.getRenderPages();
+            }
+
+            //Converting is a barrier: pages render the converted content of other
+            //pages (excerpts, related posts). Rendering and writing are fused per page.
+            convert(convertPages);
+            cleanup(incrementalBuild != null);
+            renderAndWrite(renderPages);
 
-        StaleUtils.saveLastBuildInfo(this);
+            //dependencies are complete only if all pages rendered, a failed
+            //build keeps the graph of last build
+            if (incremental) {
+                DependencyGraph.create(allPages, renderedDependencies, incrementalBuild != null ? dependencyGraph : null).save(this);
+            }
+        } finally {
+            close();
+            dependencyGraph = null;
+            renderedDependencies.clear();
+            //not saved if failed, the output files are compared by content next time
+            outputWriter = null;
+            //no idle threads left after the build
+            taskExecutor.shutdown();
+        }
+        snapshot.save();
+    }
+
+    private IncrementalBuild planIncrementalBuild(StaleUtils.Snapshot snapshot) {
+        //output file of the pages which will not be converted
+        for (Page page : allPages) {
+            Converter converter = getConverter(page.getSource());
+            if (converter != null) {
+                page.setOutputFileExtension(converter.getOutputFileExtension(page.getSource()));
+            }
+        }
+
+        List<File> changedSourceFiles = snapshot.getChangedFiles(sources);
+        List<File> changedTemplateFiles = snapshot.getChangedFiles(Collections.singletonList(templates));
+        if (changedSourceFiles == null || changedTemplateFiles == null) {
+            return null;
+        }
+
+        Set<String> changedSources = new HashSet<String>();
+        for (File file : changedSourceFiles) {
+            changedSources.add(file.getAbsolutePath());
+        }
+
+        Set<String> changedTemplates = new HashSet<String>();
+        String templatesPath = templates.getAbsolutePath();
+        for (File file : changedTemplateFiles) {
+            String name = file.getAbsolutePath().substring(templatesPath.length());
+            changedTemplates.add(FilenameUtils.separatorsToUnix(name));
+        }
+
+        log.debug("Changed sources: {}, changed templates: {}", changedSources, changedTemplates);
+        TemplateDependencies templateDependencies = new TemplateDependencies(templates, getGlobalTemplates());
+        return dependencyGraph.plan(allPages, changedSources, changedTemplates, templateDependencies, dest);
+    }
+
+    private List<String> getGlobalTemplates() {
+        List<String> list = new ArrayList<String>();
+        Map<String, String> autoImportTemplates = config.get("freemarker.auto_import_templates");
+        if (autoImportTemplates != null) {
+            list.addAll(autoImportTemplates.values());
+        }
+        List<String> autoIncludeTemplates = config.get("freemarker.auto_include_templates");
+        if (autoIncludeTemplates != null) {
+            list.addAll(autoIncludeTemplates);
+        }
+        return list;
     }
 
     void prepare() {
+        if (config.get("conversion_cache", false)) {
+            conversionCache = ConversionCache.open(this);
+        }
+
         boolean cache = config.get("cache", false);
         if (cache) {
-            cacheManager = Caching.getCachingProvider().getCacheManager();
-            pageCache = cacheManager.getCache("pages");
+            int segmentSize = config.get("content_store_segment_size", ContentStore.DEFAULT_SEGMENT_SIZE);
+            contentStore = ContentStore.open(new File(getWorking(), ".contentStore"), segmentSize);
 
-            if (pageCache == null) {
-                throw new IllegalArgumentException("'pages' cache not defined");
-            }
+            //bytes of page content held in heap, the rest spilled to content store
+            Number maxWeight = config.get("page_cache_size", (Number) PageContentCache.DEFAULT_MAX_WEIGHT);
+            pageCache = new PageContentCache(contentStore, maxWeight.longValue());
         }
     }
 
     void close() {
-        if (cacheManager != null) {
+        if (pageCache != null) {
             pageCache.clear();
-            cacheManager.close();
-            cacheManager = null;
+            pageCache = null;
+        }
+        if (contentStore != null) {
+            contentStore.close();
+            contentStore = null;
+        }
+        if (conversionCache != null) {
+            conversionCache.close();
+            conversionCache = null;
         }
     }
 
     void reset() {
+        this.frozenPages = null;
+        this.frozenPosts = null;
         this.time = config.get("time", new Date());
         //Call #add() in multi-threading
         //this.allPages = Collections.synchronizedList(   new ArrayList<Page>());
@@ -273,6 +408,8 @@ public class SiteImpl implements Site, SiteBuilder {
 
         //Call #add() in multi-threading
         this.staticFiles = Collections.synchronizedList(new ArrayList<StaticFile>());
+
+        this.renderedDependencies.clear();
     }
 
 
@@ -538,8 +675,12 @@ public class SiteImpl implements Site, SiteBuilder {
     }
 
     void convert() {
-        log.info("Converting {} pages...", allPages.size());
-        taskExecutor.run(allPages, new RunnableTask<Page>() {
+        convert(allPages);
+    }
+
+    void convert(List<Page> pages) {
+        log.info("Converting {} pages...", pages.size());
+        taskExecutor.run(pages, new RunnableTask<Page>() {
             public void run(Page page) {
                 log.debug("Converting page: {}", page.getUrl());
 
@@ -552,20 +693,114 @@ public class SiteImpl implements Site, SiteBuilder {
     }
 
     void render() {
+        render(allPages);
+    }
+
+    void render(List<Page> pages) {
         processors.preRender(this);
+        freezeCollections();
         final Map<String, Object> rootMap = buildRootMap();
         renderer.prepare();
 
-        log.info("Rendering {} pages...", allPages.size());
-        taskExecutor.run(allPages, new RunnableTask<Page>() {
+        log.info("Rendering {} pages...", pages.size());
+        taskExecutor.run(pages, new RunnableTask<Page>() {
             public void run(Page page) {
-                log.debug("Rendering page: {}", page.getUrl());
+                renderPage(page, rootMap, null);
+            }
+        });
+        processors.postRender(this);
+    }
+
+    /**
+     * Render each page and write it to destination directory as soon as it is rendered.
+     * If any processor handles the rendered pages (<code>postRender</code>), all pages
+     * are rendered before written.
+     *
+     * @param pages pages to render
+     */
+    void renderAndWrite(List<Page> pages) {
+        if (isPostRenderOverridden(Site.class, Page.class) || isPostRenderOverridden(Site.class)) {
+            log.debug("Processor postRender found, render all pages before write.");
+            render(pages);
+            write(pages);
+            return;
+        }
+
+        processors.preRender(this);
+        freezeCollections();
+        final Map<String, Object> rootMap = buildRootMap();
+        renderer.prepare();
+        openOutput();
+
+        log.info("Rendering and writing {} pages to {}", pages.size(), dest);
+        final List<Future<?>> writes = Collections.synchronizedList(new ArrayList<Future<?>>());
+        taskExecutor.run(pages, new RunnableTask<Page>() {
+            public void run(final Page page) {
+                if (streamingRender && page instanceof SimplePage) {
+                    //rendered straight into the output file
+                    renderPage(page, rootMap, dest);
+                    releaseContent(page);
+                    return;
+                }
 
-                page.render(renderer, factory.getHighlighter(), rootMap);
-                processors.postRender(SiteImpl.this, page);
+                renderPage(page, rootMap, null);
+                //hand over to I/O thread, keep CPU thread rendering
+                writes.add(taskExecutor.submitIO(new Runnable() {
+                    @Override
+                    public void run() {
+                        page.write(dest);
+                        releaseContent(page);
+                    }
+                }));
             }
         });
+        taskExecutor.waitFor(writes);
         processors.postRender(this);
+
+        writeStaticFiles();
+        closeOutput();
+        processors.postWrite(this);
+    }
+
+    private boolean isPostRenderOverridden(Class<?>... parameterTypes) {
+        for (Processor processor : factory.getPluginManager().getProcessors()) {
+            try {
+                Method method = processor.getClass().getMethod("postRender", parameterTypes);
+                if (method.getDeclaringClass() != ProcessorAdapter.class) {
+                    return true;
+                }
+            } catch (NoSuchMethodException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param dest render the page straight into output file in this directory if not null
+     */
+    private void renderPage(Page page, Map<String, Object> rootMap, File dest) {
+        log.debug("Rendering page: {}", page.getUrl());
+
+        if (incremental) {
+            DependencyRecorder.begin(page);
+            try {
+                renderPageInternal(page, rootMap, dest);
+            } finally {
+                renderedDependencies.put(page.getUrl(), DependencyRecorder.end());
+            }
+        } else {
+            renderPageInternal(page, rootMap, dest);
+        }
+        processors.postRender(this, page);
+    }
+
+    private void renderPageInternal(Page page, Map<String, Object> rootMap, File dest) {
+        if (dest != null) {
+            ((SimplePage) page).renderTo(renderer, factory.getHighlighter(), rootMap, dest);
+        } else {
+            page.render(renderer, factory.getHighlighter(), rootMap);
+        }
     }
 
 
@@ -583,24 +818,44 @@ public class SiteImpl implements Site, SiteBuilder {
     /**
      *
      */
-    void cleanup() {
+    /**
+     * Delete the obsolete files in destination directory. A full build scans the
+     * destination directory, an incremental build deletes the output files of last
+     * build which are not produced any more.
+     *
+     * @param incremental true if incremental build
+     */
+    void cleanup(boolean incremental) {
         log.info("cleanup...");
-        final List<File> destFiles = getAllDestFiles(dest);
-        List<File> files = new ArrayList<File>();
+        Set<File> files = new LinkedHashSet<File>();
 
         for (StaticFile staticFile : staticFiles) {
             files.add(staticFile.getOutputFile(dest));
         }
 
-        log.debug("Files in target: {}", destFiles.size());
-        log.debug("Assets file in src: {}", files.size());
+        //output of the pages not rendered in incremental build must be kept
+        for (Page page : allPages) {
+            files.add(page.getOutputFile(dest));
+        }
 
+        log.debug("Site output files: {}", files.size());
 
         //find obsolete files
-        for (File file : files) {
-            destFiles.remove(file);
+        List<File> destFiles;
+        Set<File> lastFiles = incremental ? OutputFileList.load(this, dest) : null;
+        if (lastFiles != null) {
+            //output of last build not produced any more, e.g. of deleted pages
+            destFiles = new ArrayList<File>();
+            for (File file : lastFiles) {
+                if (!files.contains(file) && file.exists()) {
+                    destFiles.add(file);
+                }
+            }
+        } else {
+            destFiles = getAllDestFiles(dest);
+            log.debug("Files in target: {}", destFiles.size());
+            destFiles.removeAll(files);
         }
-//		destFiles.removeAll(files);
 
         log.debug("Files in target will be deleted: {}", destFiles.size());
 
@@ -621,6 +876,8 @@ public class SiteImpl implements Site, SiteBuilder {
             });
         }
 
+        OutputFileList.save(this, dest, files);
+
         //call post cleanup
         processors.postCleanup(this);
     }
@@ -650,30 +907,73 @@ public class SiteImpl implements Site, SiteBuilder {
 
 
     void write() {
-        dest.mkdirs();
+        write(allPages);
+    }
+
+    void write(List<Page> pages) {
+        openOutput();
 
-        log.info("Writing {} pages to {}", allPages.size(), dest);
-        taskExecutor.run(allPages, new RunnableTask<Page>() {
+        log.info("Writing {} pages to {}", pages.size(), dest);
+        taskExecutor.runIO(pages, new RunnableTask<Page>() {
             @Override
             public void run(Page input) {
                 input.write(dest);
+                releaseContent(input);
             }
         });
 
+        writeStaticFiles();
+        closeOutput();
+        processors.postWrite(this);
+    }
+
+    /**
+     * Drop the rendered output of written page, the converted content is kept.
+     */
+    private void releaseContent(Page page) {
+        if (page instanceof SimplePage) {
+            ((SimplePage) page).releaseContent();
+        }
+    }
+
+    private void openOutput() {
+        dest.mkdirs();
+        if (writeIfChanged) {
+            outputWriter = OutputWriter.open(this);
+        }
+    }
+
+    private void writeStaticFiles() {
         if (!staticFiles.isEmpty()) {
             log.info("Writing {} static files to {}...", staticFiles.size(), dest);
-            taskExecutor.run(staticFiles, new RunnableTask<StaticFile>() {
+            taskExecutor.runIO(staticFiles, new RunnableTask<StaticFile>() {
                 @Override
                 public void run(StaticFile input) {
                     input.write(dest);
                 }
             });
         }
+    }
 
-        processors.postWrite(this);
+    private void closeOutput() {
+        if (outputWriter != null) {
+            outputWriter.close(this);
+            outputWriter = null;
+        }
     }
 
 
+    /**
+     * Collections do not change while rendering, so the page and post lists are built
+     * once, not on each call from templates.
+     */
+    private void freezeCollections() {
+        frozenPages = null;
+        frozenPosts = null;
+        frozenPages = getPages();
+        frozenPosts = getPosts();
+    }
+
     /**
      * <pre>
      *  Collection collection = collections.get("page");
@@ -684,6 +984,10 @@ public class SiteImpl implements Site, SiteBuilder {
      * @deprecated
      */
     public List<Page> getPages() {
+        List<Page> frozen = frozenPages;
+        if (frozen != null) {
+            return frozen;
+        }
         Collection collection = collections.get("page");
         if (collection != null) {
             List<Page> pages = collection.getPages();
@@ -696,6 +1000,10 @@ public class SiteImpl implements Site, SiteBuilder {
      * @return the posts
      */
     public List<Post> getPosts() {
+        List<Post> frozen = frozenPosts;
+        if (frozen != null) {
+            return frozen;
+        }
         Collection collection = collections.get("post");
         if (collection != null) {
             List<Page> pages = collection.getPages();
@@ -728,6 +1036,31 @@ public class SiteImpl implements Site, SiteBuilder {
         return allPages;
     }
 
+    /**
+     * Find pages by front matter key, e.g. the template page of tags.
+     * The front matter is indexed, the pages with data set by
+     * {@link Page#set(String, Object)} are tracked, both are checked by
+     * {@link Page#get(String)}.
+     *
+     * @param key front matter key
+     * @return a new list of the pages which have a non-null value of the key, in page order
+     */
+    public List<Page> getPagesByMetaKey(String key) {
+        return allPages.getPagesByMetaKey(key);
+    }
+
+    /**
+     * Called when the page has data set by {@link Page#set(String, Object)} the first time.
+     *
+     * @param page the page
+     */
+    void pageDataSet(Page page) {
+        AllPages pages = allPages;
+        if (pages != null) {
+            pages.addPageWithData(page);
+        }
+    }
+
     @Override
     public synchronized Page addPage(Page page) {
         allPages.addPage(page);
@@ -860,6 +1193,27 @@ public class SiteImpl implements Site, SiteBuilder {
         return theme;
     }
 
+    /**
+     * @return the conversion cache, null if not enabled
+     */
+    ConversionCache getConversionCache() {
+        return conversionCache;
+    }
+
+    /**
+     * @return the writer skips unchanged output files, only available while writing
+     */
+    OutputWriter getOutputWriter() {
+        return outputWriter;
+    }
+
+    /**
+     * @return the executor runs build tasks in parallel
+     */
+    public TaskExecutor getTaskExecutor() {
+        return taskExecutor;
+    }
+
     ProcessorsProcessor getProcessors() {
         return processors;
     }
@@ -935,15 +1289,82 @@ public class SiteImpl implements Site, SiteBuilder {
     }
 
     static class AllPages extends ArrayList<Page> implements List<Page> {
+        //front matter key -> pages define it, in page order, built on first lookup
+        private Map<String, List<Page>> metaKeyIndex;
+        private int indexedModCount;
+        //pages which may have data not in front matter, by identity
+        private final Set<Page> pagesWithData = Collections.newSetFromMap(new IdentityHashMap<Page, Boolean>());
+
         public AllPages() {
             super(100);
         }
 
-        AllPages addPage(Page page) {
+        synchronized AllPages addPage(Page page) {
             super.add(page);
+            if (!(page instanceof SimplePage) || ((SimplePage) page).hasData()) {
+                pagesWithData.add(page);
+            }
+            if (metaKeyIndex != null && indexedModCount == modCount - 1) {
+                index(page);
+                indexedModCount = modCount;
+            }
             return this;
         }
 
+        synchronized List<Page> getPagesByMetaKey(String key) {
+            //rebuild if pages removed or reordered
+            if (metaKeyIndex == null || indexedModCount != modCount) {
+                metaKeyIndex = new HashMap<String, List<Page>>();
+                for (Page page : this) {
+                    index(page);
+                }
+                indexedModCount = modCount;
+            }
+            List<Page> pages = metaKeyIndex.get(key);
+            List<Page> result = new ArrayList<Page>(pages != null ? pages.size() : 1);
+            if (pagesWithData.isEmpty()) {
+                if (pages != null) {
+                    result.addAll(pages);
+                }
+                return result;
+            }
+
+            //values may be set or changed by Page#set, check the pages with data
+            //too, in page order
+            Set<Page> candidates = Collections.newSetFromMap(new IdentityHashMap<Page, Boolean>());
+            if (pages != null) {
+                candidates.addAll(pages);
+            }
+            for (Page page : this) {
+                if ((candidates.contains(page) || pagesWithData.contains(page)) && page.get(key) != null) {
+                    result.add(page);
+                }
+            }
+            return result;
+        }
+
+        synchronized void addPageWithData(Page page) {
+            pagesWithData.add(page);
+        }
+
+        private void index(Page page) {
+            Source source = page.getSource();
+            if (source == null || source.getMeta() == null) {
+                return;
+            }
+            for (Map.Entry<String, Object> entry : source.getMeta().entrySet()) {
+                if (entry.getValue() == null) {
+                    continue;
+                }
+                List<Page> pages = metaKeyIndex.get(entry.getKey());
+                if (pages == null) {
+                    pages = new ArrayList<Page>(1);
+                    metaKeyIndex.put(entry.getKey(), pages);
+                }
+                pages.add(page);
+            }
+        }
+
         @Override
         @Deprecated
         public boolean add(Page page) {
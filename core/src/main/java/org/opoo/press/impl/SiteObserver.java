@@ -138,8 +138,7 @@ public class SiteObserver implements Observer {
         if (!result.isEmpty()) {
             log.info("Source file(s) changed: \n{}", result.toString());
             long start = System.currentTimeMillis();
-            //force build
-            site.build(true);
+            site.rebuild();
             log.info("Build time: {}ms", System.currentTimeMillis() - start);
         } else {
             log.debug("Nothing to build - all site output files are up to date.");
@@ -24,7 +24,12 @@ import org.opoo.press.Renderer;
 import org.opoo.press.Site;
 import org.opoo.press.Source;
 import org.opoo.press.Tag;
+import org.opoo.press.build.DependencyRecorder;
+import org.opoo.press.renderer.StreamingRenderer;
+import org.opoo.press.source.TemplateSyntax;
+import org.opoo.util.LayeredMap;
 
+import java.io.File;
 import java.util.List;
 import java.util.Map;
 
@@ -37,6 +42,10 @@ public class SourcePost extends AbstractSourcePage implements Post, Comparable<P
     private String id;
     private boolean excerpted = false;
     private boolean excerptExtracted = false;
+    private volatile boolean excerptPending = false;
+    private boolean excerptIsContent = false;
+    //excerpt in front matter contains template syntax
+    private boolean excerptTemplateSyntax = false;
 
     public SourcePost(Site site, Source source) {
         super(site, source, null);
@@ -69,10 +78,28 @@ public class SourcePost extends AbstractSourcePage implements Post, Comparable<P
         String excerpt = (String) frontMatter.get("excerpt");
         if (StringUtils.isNotBlank(excerpt)) {
             excerpted = true;
+            excerptTemplateSyntax = TemplateSyntax.scan(excerpt);
             setExcerpt(excerpt);
             return;
         }
 
+        //extract from content when required, the content is not loaded yet
+        excerptPending = true;
+    }
+
+    private void ensureExcerpt() {
+        if (excerptPending) {
+            synchronized (this) {
+                if (excerptPending) {
+                    extractExcerpt(site);
+                    excerptPending = false;
+                }
+            }
+        }
+    }
+
+    private void extractExcerpt(Site site) {
+        String excerpt;
         String content = getContent();
         if (StringUtils.isBlank(content)) {
             log.debug("Content is empty, can not extract excerpt.");
@@ -95,15 +122,22 @@ public class SourcePost extends AbstractSourcePage implements Post, Comparable<P
         }
 
         excerptExtracted = true;
+        excerptIsContent = true;
         excerpt = content;
         setExcerpt(excerpt);
     }
 
     @Override
     public void convert(Converter converter) {
+        ensureExcerpt();
         super.convert(converter);
         if (excerptable && converter != null) {
-            setExcerpt(converter.convert(getExcerpt()));
+            if (excerptIsContent) {
+                //the whole content is the excerpt, do not convert it twice
+                setExcerpt(getContent());
+            } else {
+                setExcerpt(convert(converter, getExcerpt()));
+            }
         }
     }
 
@@ -114,12 +148,27 @@ public class SourcePost extends AbstractSourcePage implements Post, Comparable<P
         }
 
         super.render(renderer, highlighter, rootMap);
+        renderExcerpt(renderer, rootMap);
+    }
+
+    @Override
+    public void renderTo(Renderer renderer, Highlighter highlighter, Map<String, Object> rootMap, File dest) {
+        if (isSkipRender() || !(renderer instanceof StreamingRenderer)) {
+            //render (include excerpt) and write
+            super.renderTo(renderer, highlighter, rootMap, dest);
+            return;
+        }
+
+        super.renderTo(renderer, highlighter, rootMap, dest);
+        renderExcerpt(renderer, rootMap);
+    }
 
+    private void renderExcerpt(Renderer renderer, Map<String, Object> rootMap) {
         if (excerptable) {
             String excerpt = getExcerpt();
             if (renderer.isRenderRequired(this, excerpt)) {
                 log.debug("Rendering excerpt.");
-                setExcerpt(renderer.renderContent(excerpt, rootMap));
+                setExcerpt(renderer.renderContent(excerpt, LayeredMap.create(rootMap)));
 
                 if (log.isTraceEnabled()) {
                     log.trace("Excerpt rendered[{}]: {}", getUrl(), excerpt);
@@ -128,6 +177,15 @@ public class SourcePost extends AbstractSourcePage implements Post, Comparable<P
         }
     }
 
+    /**
+     * The excerpt is extracted from content, or set in front matter and scanned
+     * on read.
+     */
+    @Override
+    public boolean isTemplateFree() {
+        return !excerptTemplateSyntax && super.isTemplateFree();
+    }
+
     /**
      * @return the id
      */
@@ -144,19 +202,24 @@ public class SourcePost extends AbstractSourcePage implements Post, Comparable<P
      */
     @Override
     public String getExcerpt() {
+        DependencyRecorder.record(this);
+        ensureExcerpt();
         return contentHolder.getExcerpt();
     }
 
     public void setExcerpt(String excerpt) {
+        excerptPending = false;
         contentHolder.setExcerpt(excerpt);
     }
 
     public boolean isExcerptExtracted() {
+        ensureExcerpt();
         return excerptExtracted;
     }
 
     @Override
     public boolean isExcerpted() {
+        ensureExcerpt();
         return excerpted;
     }
 
@@ -20,6 +20,7 @@ import org.opoo.press.FileOrigin;
 import org.opoo.press.Origin;
 import org.opoo.press.Site;
 import org.opoo.press.StaticFile;
+import org.opoo.press.build.OutputWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -86,9 +87,13 @@ public class StaticFileImpl implements StaticFile {
             File target = getOutputFile(dest);
 
             FileOrigin fo = (FileOrigin) origin;
+            OutputWriter outputWriter = site instanceof SiteImpl ? ((SiteImpl) site).getOutputWriter() : null;
             if (target.exists() && target.length() == fo.getLength()
                     && target.lastModified() >= fo.getLastModified()) {
                 //log.debug("Target file is newer than source file, skip copying.");
+                if (outputWriter != null) {
+                    outputWriter.skip();
+                }
                 return;
             }
             try {
@@ -98,7 +103,11 @@ public class StaticFileImpl implements StaticFile {
                 }
 
                 log.debug("Copying static file to " + target);
-                FileUtils.copyFile(fo.getFile(), target);
+                if (outputWriter != null) {
+                    outputWriter.copy(fo.getFile(), target);
+                } else {
+                    FileUtils.copyFile(fo.getFile(), target);
+                }
             } catch (IOException e) {
                 log.error("Copying static file error: " + target, e);
                 throw new RuntimeException(e);
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2013 Alex Lin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opoo.press.pagination;
+
+import org.apache.commons.lang.StringUtils;
+import org.opoo.press.Converter;
+import org.opoo.press.Page;
+import org.opoo.press.Pager;
+import org.opoo.press.PaginationUpdater;
+import org.opoo.press.Site;
+import org.opoo.press.impl.SimplePage;
+
+/**
+ * Page 2..n of a paginated page.
+ * <p>
+ * The content is the content of the first page, shared by all pages of the
+ * pagination and converted once on first access, these pages skip the convert
+ * phase. The url and title suffix are updated by the {@link PaginationUpdater}
+ * on creation, so the plugins may change them later.
+ *
+ * @author Alex Lin
+ */
+public class PaginatedPage extends SimplePage {
+    private final SharedContent sharedContent;
+
+    PaginatedPage(Site site, Page page, Pager pager, SharedContent sharedContent, PaginationUpdater updater) {
+        super(site, page, pager, false);
+        this.sharedContent = sharedContent;
+        updater.apply(this);
+    }
+
+    /**
+     * The shared content, unless the content is set to this page.
+     */
+    @Override
+    public String getContent() {
+        String content = super.getContent();
+        return content != null ? content : sharedContent.get(this);
+    }
+
+    /**
+     * Not converted, the shared content is converted once.
+     */
+    @Override
+    public void convert(Converter converter) {
+        sharedContent.setConverter(converter);
+        if (converter != null) {
+            setOutputFileExtension(converter.getOutputFileExtension(getSource()));
+        }
+    }
+
+    String convertContent(Converter converter, String content) {
+        return convert(converter, content);
+    }
+
+    /**
+     * Content of the first page, converted once for all pages of the pagination.
+     */
+    static class SharedContent {
+        private final String content;
+        private volatile Converter converter;
+        private volatile String converted;
+
+        SharedContent(String content) {
+            this.content = content;
+        }
+
+        void setConverter(Converter converter) {
+            this.converter = converter;
+        }
+
+        String get(PaginatedPage page) {
+            String result = converted;
+            if (result != null) {
+                return result;
+            }
+            //not in convert phase yet
+            if (converter == null || StringUtils.isBlank(content)) {
+                return content;
+            }
+            synchronized (this) {
+                if (converted == null) {
+                    converted = page.convertContent(converter, content);
+                }
+                return converted;
+            }
+        }
+    }
+}
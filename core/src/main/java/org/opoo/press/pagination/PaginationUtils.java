@@ -3,6 +3,7 @@ package org.opoo.press.pagination;
 import org.opoo.press.Collection;
 import org.opoo.press.Page;
 import org.opoo.press.Pager;
+import org.opoo.press.PaginationUpdater;
 import org.opoo.press.Site;
 import org.opoo.press.impl.SimplePage;
 
@@ -27,6 +28,8 @@ public class PaginationUtils {
 
         Page[] pages = new Page[totalPages];
         Pager[] pagers = new Pager[totalPages];
+        PaginatedPage.SharedContent sharedContent = null;
+        PaginationUpdater updater = site.getFactory().getPaginationUpdater();
         for (int i = 0; i < totalPages; i++) {
             int pageNumber = i + 1;
             int fromIndex = i * pageSize;
@@ -38,14 +41,16 @@ public class PaginationUtils {
 
             Pager pager = new Pager(pageNumber, totalPages, totalItems, pageSize, pageItems);
             if (pageNumber > 1) {
+                if (sharedContent == null) {
+                    sharedContent = new PaginatedPage.SharedContent(page.getContent());
+                }
+                //url and title updated by the updater
                 SimplePage newPage = /*(page.getSource() != null)
                         ? new PageImpl(site, page.getSource(), pager)
-                        : */new SimplePage(site, page, pager);
+                        : */new PaginatedPage(site, page, pager, sharedContent, updater);
 
                 pages[i] = newPage;
                 newPages.add(newPage);
-
-                site.getFactory().getPaginationUpdater().apply(newPage);
             } else {
                 page.setPager(pager);
                 pages[i] = page;
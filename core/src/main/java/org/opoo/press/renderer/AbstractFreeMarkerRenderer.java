@@ -15,12 +15,19 @@
  */
 package org.opoo.press.renderer;
 
+import com.google.common.base.Charsets;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import freemarker.template.Configuration;
 import freemarker.template.Template;
 import freemarker.template.TemplateException;
-import org.apache.commons.lang.StringUtils;
 import org.opoo.press.Page;
 import org.opoo.press.Site;
+import org.opoo.press.impl.SimplePage;
+import org.opoo.press.source.TemplateSyntax;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -29,13 +36,22 @@ import java.io.StringReader;
 import java.io.StringWriter;
 import java.io.Writer;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 
 /**
  * @author Alex Lin
  */
 public abstract class AbstractFreeMarkerRenderer extends AbstractRenderer {
     private static final Logger log = LoggerFactory.getLogger(AbstractFreeMarkerRenderer.class);
-    private long start = System.currentTimeMillis();
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    //content templates compiled by content hash, shared by pages (excerpts on
+    //pagination and tag pages) and builds
+    private final Cache<Long, Template> contentTemplates = CacheBuilder.newBuilder()
+            .softValues()
+            .maximumSize(10000)
+            .build();
 
     @Override
     public void render(String templateName, Object rootMap, Writer out) {
@@ -54,8 +70,52 @@ public abstract class AbstractFreeMarkerRenderer extends AbstractRenderer {
     public void renderContent(String templateContent, Object rootMap, Writer out) {
         log.debug("Rendering content...");
         try {
-            Template template = new Template("CT" + (start++),
-                    new StringReader(templateContent), getConfiguration(), "UTF-8");
+            Template template = getContentTemplate(templateContent);
+            process(template, rootMap, out);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } catch (TemplateException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private Template getContentTemplate(final String templateContent) throws IOException {
+        final long hash = HASH_FUNCTION.hashString(templateContent, Charsets.UTF_8).asLong();
+        try {
+            return contentTemplates.get(hash, new Callable<Template>() {
+                @Override
+                public Template call() throws Exception {
+                    return new Template("CT" + Long.toHexString(hash),
+                            new StringReader(templateContent), getConfiguration(), "UTF-8");
+                }
+            });
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new RuntimeException(cause);
+        } catch (UncheckedExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Render the compiled template.
+     *
+     * @param template the template
+     * @param rootMap data model
+     * @return the result
+     */
+    protected String render(Template template, Object rootMap) {
+        StringWriter out = new StringWriter();
+        render(template, rootMap, out);
+        return out.toString();
+    }
+
+    protected void render(Template template, Object rootMap, Writer out) {
+        log.debug("Rendering template {}", template.getName());
+        try {
             process(template, rootMap, out);
         } catch (IOException e) {
             throw new RuntimeException(e);
@@ -67,7 +127,7 @@ public abstract class AbstractFreeMarkerRenderer extends AbstractRenderer {
     private void process(Template template, Object rootMap, Writer out) throws IOException, TemplateException {
         preProcess(template, rootMap);
 
-        template.process(rootMap, out);
+        template.process(toDataModel(rootMap), out);
         out.flush();
 
         postProcess(template, rootMap, out);
@@ -76,6 +136,14 @@ public abstract class AbstractFreeMarkerRenderer extends AbstractRenderer {
     protected void preProcess(Template template, Object rootMap) {
     }
 
+    /**
+     * @param rootMap root map
+     * @return the data model to process template with
+     */
+    protected Object toDataModel(Object rootMap) {
+        return rootMap;
+    }
+
     protected void postProcess(Template template, Object rootMap, Writer out) {
     }
 
@@ -91,12 +159,12 @@ public abstract class AbstractFreeMarkerRenderer extends AbstractRenderer {
         //if auto_render set to true, check freemarker tag in content
         Boolean autoRender = site.get("auto_render_content");
         if (autoRender != null && autoRender) {
-            if (StringUtils.contains(content, "<#") && StringUtils.contains(content, ">")) {
-                return true;
-            }
-            if (StringUtils.contains(content, "${") && StringUtils.contains(content, "}")) {
-                return true;
+            //scanned on read
+            if (page instanceof SimplePage && ((SimplePage) page).isTemplateFree()) {
+                return false;
             }
+            //content changed after read, e.g. by generators
+            return TemplateSyntax.scan(content);
         }
 
         return false;
@@ -109,16 +177,12 @@ public abstract class AbstractFreeMarkerRenderer extends AbstractRenderer {
 
     public abstract String render(Page base, Map<String, Object> rootMap);
 
+    /**
+     * Process the pattern, e.g. permalink, with the compiled and cached template.
+     *
+     * @see PatternTemplate
+     */
     public static String process(String templateContent, Object rootMap) {
-        try {
-            Configuration configuration = new Configuration();
-            Template template = new Template("tmp", new StringReader(templateContent), configuration, "UTF-8");
-            StringWriter writer = new StringWriter();
-            template.process(rootMap, writer);
-            writer.flush();
-            return writer.toString();
-        } catch (Exception e) {
-            throw new RuntimeException("Process template failed: " + templateContent, e);
-        }
+        return PatternTemplate.process(templateContent, rootMap);
     }
 }
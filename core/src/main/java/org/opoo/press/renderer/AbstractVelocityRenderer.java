@@ -15,23 +15,91 @@
  */
 package org.opoo.press.renderer;
 
+import com.google.common.base.Charsets;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import org.apache.velocity.Template;
 import org.apache.velocity.VelocityContext;
 import org.apache.velocity.app.VelocityEngine;
 import org.apache.velocity.context.Context;
+import org.apache.velocity.runtime.RuntimeConstants;
+import org.apache.velocity.runtime.resource.loader.StringResourceLoader;
+import org.apache.velocity.runtime.resource.util.StringResourceRepository;
+import org.apache.velocity.runtime.resource.util.StringResourceRepositoryImpl;
 import org.opoo.press.Renderer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
 
 /**
  * @author Alex Lin
  */
 public abstract class AbstractVelocityRenderer extends AbstractRenderer implements Renderer {
     private static final Logger log = LoggerFactory.getLogger(AbstractVelocityRenderer.class);
-    private long start = System.currentTimeMillis();
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+    private static final String STRING_RESOURCE_LOADER = "string";
+
+    //content templates compiled by content hash, shared by pages and builds
+    private final Cache<Long, Template> contentTemplates = CacheBuilder.newBuilder()
+            .softValues()
+            .maximumSize(10000)
+            .build();
+    //named templates (layouts) of current build
+    private final ConcurrentMap<String, Template> templates = new ConcurrentHashMap<String, Template>();
+    private final String repositoryName = getClass().getName() + "@" + Integer.toHexString(System.identityHashCode(this));
+    private StringResourceRepository repository;
+
+    /**
+     * Add the string resource loader to the engine (before the engine initialized),
+     * content templates are parsed by it and cached by content hash. The repository
+     * is an application attribute of the engine, not registered in the static
+     * repositories of {@link StringResourceLoader}, it goes with the engine.
+     *
+     * @param velocityEngine the engine
+     */
+    protected void initializeStringResourceLoader(VelocityEngine velocityEngine) {
+        repository = new StringResourceRepositoryImpl();
+        repository.setEncoding("UTF-8");
+        velocityEngine.setApplicationAttribute(repositoryName, repository);
+
+        List<Object> loaders = new ArrayList<Object>();
+        loaders.add(STRING_RESOURCE_LOADER);
+        Object value = velocityEngine.getProperty(RuntimeConstants.RESOURCE_LOADER);
+        if (value instanceof Collection) {
+            loaders.addAll((Collection<?>) value);
+        } else if (value != null) {
+            for (String loader : value.toString().split(",")) {
+                loaders.add(loader.trim());
+            }
+        } else {
+            loaders.add("file");
+        }
+        velocityEngine.setProperty(RuntimeConstants.RESOURCE_LOADER, loaders);
+
+        String prefix = STRING_RESOURCE_LOADER + "." + RuntimeConstants.RESOURCE_LOADER + ".";
+        velocityEngine.setProperty(prefix + "class", StringResourceLoader.class.getName());
+        velocityEngine.setProperty(prefix + StringResourceLoader.REPOSITORY_NAME, repositoryName);
+        velocityEngine.setProperty(prefix + StringResourceLoader.REPOSITORY_STATIC, false);
+        //cached by this renderer
+        velocityEngine.setProperty(prefix + "cache", false);
+    }
+
+    @Override
+    public void prepare() {
+        templates.clear();
+    }
 
     @Override
     public void render(String templateName, Object context, Writer out) {
@@ -45,21 +113,67 @@ public abstract class AbstractVelocityRenderer extends AbstractRenderer implemen
 
     public void render(String templateName, Context context, Writer out) {
         log.debug("Rendering template {}", templateName);
-        Template template = getVelocityEngine().getTemplate(templateName, "UTF-8");
-        template.merge(convert(context), out);
+        getTemplate(templateName).merge(context, out);
     }
 
     public void renderContent(String templateContent, Context context, Writer out) {
         log.debug("Rendering content...");
-        String logTag = "CT" + (start++);
-        getVelocityEngine().evaluate(context, out, logTag, templateContent);
+        if (repository == null) {
+            getVelocityEngine().evaluate(context, out, "CT", templateContent);
+            return;
+        }
+        getContentTemplate(templateContent).merge(context, out);
     }
 
+    /**
+     * Get the template by name, templates are loaded once per build.
+     *
+     * @param templateName template name
+     * @return the template
+     */
+    protected Template getTemplate(String templateName) {
+        Template template = templates.get(templateName);
+        if (template == null) {
+            template = getVelocityEngine().getTemplate(templateName, "UTF-8");
+            Template old = templates.putIfAbsent(templateName, template);
+            if (old != null) {
+                template = old;
+            }
+        }
+        return template;
+    }
+
+    private Template getContentTemplate(final String templateContent) {
+        final long hash = HASH_FUNCTION.hashString(templateContent, Charsets.UTF_8).asLong();
+        try {
+            return contentTemplates.get(hash, new Callable<Template>() {
+                @Override
+                public Template call() throws Exception {
+                    String name = "CT" + Long.toHexString(hash);
+                    repository.putStringResource(name, templateContent);
+                    try {
+                        return getVelocityEngine().getTemplate(name, "UTF-8");
+                    } finally {
+                        repository.removeStringResource(name);
+                    }
+                }
+            });
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        } catch (UncheckedExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
 
     protected Context convert(Object rootMap) {
         if (rootMap instanceof Context) {
             return (Context) rootMap;
         } else if (rootMap instanceof Map) {
+            //no copy, a layered root map shares the site-level data
             return new VelocityContext((Map) rootMap);
         }
         throw new IllegalArgumentException("rootMap type not supported: " + rootMap);
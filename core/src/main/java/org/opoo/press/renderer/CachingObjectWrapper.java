@@ -0,0 +1,93 @@
+/*
+ * Copyright 2013 Alex Lin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opoo.press.renderer;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import freemarker.template.DefaultObjectWrapper;
+import freemarker.template.TemplateModel;
+import freemarker.template.TemplateModelException;
+import freemarker.template.TemplateSequenceModel;
+import org.opoo.press.Base;
+import org.opoo.press.Collection;
+import org.opoo.press.MetaTag;
+import org.opoo.press.Site;
+
+import java.util.List;
+
+/**
+ * Object wrapper memoizes the models of site-level objects: site, pages, posts,
+ * collections, tags and categories, so they are wrapped (and introspected) once
+ * per build rather than once per page render. The models refer to their objects,
+ * so the objects are held until {@link #clear()}, call it before each build.
+ * Other objects, e.g. lists created by template method calls, are never memoized.
+ * <p>
+ * Lists are wrapped as live, read-only sequences instead of copied
+ * {@link freemarker.template.SimpleSequence}s, the models can be shared by render
+ * threads.
+ *
+ * @author Alex Lin
+ */
+public class CachingObjectWrapper extends DefaultObjectWrapper {
+    //weak keys: by identity
+    private final Cache<Object, TemplateModel> models = CacheBuilder.newBuilder().weakKeys().build();
+
+    @Override
+    public TemplateModel wrap(Object obj) throws TemplateModelException {
+        if (obj instanceof List) {
+            return new ListModel((List<?>) obj);
+        }
+
+        if (obj instanceof Site || obj instanceof Base || obj instanceof Collection || obj instanceof MetaTag) {
+            TemplateModel model = models.getIfPresent(obj);
+            if (model == null) {
+                model = super.wrap(obj);
+                models.put(obj, model);
+            }
+            return model;
+        }
+
+        return super.wrap(obj);
+    }
+
+    /**
+     * Discard all models.
+     */
+    public void clear() {
+        models.invalidateAll();
+    }
+
+    private class ListModel implements TemplateSequenceModel {
+        private final List<?> list;
+
+        ListModel(List<?> list) {
+            this.list = list;
+        }
+
+        @Override
+        public TemplateModel get(int index) throws TemplateModelException {
+            if (index < 0 || index >= list.size()) {
+                return null;
+            }
+            return wrap(list.get(index));
+        }
+
+        @Override
+        public int size() throws TemplateModelException {
+            return list.size();
+        }
+    }
+}
@@ -15,12 +15,16 @@
  */
 package org.opoo.press.renderer;
 
+import com.google.common.base.Charsets;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
 import freemarker.cache.ClassTemplateLoader;
 import freemarker.cache.FileTemplateLoader;
 import freemarker.cache.MultiTemplateLoader;
 import freemarker.cache.TemplateLoader;
 import freemarker.template.Configuration;
-import freemarker.template.DefaultObjectWrapper;
 import freemarker.template.Template;
 import freemarker.template.TemplateModel;
 import org.apache.commons.io.FileUtils;
@@ -28,39 +32,60 @@ import org.apache.commons.lang.StringUtils;
 import org.opoo.press.FileOrigin;
 import org.opoo.press.Origin;
 import org.opoo.press.Page;
+import org.opoo.press.PluginManager;
+import org.opoo.press.Processor;
 import org.opoo.press.Site;
 import org.opoo.press.Source;
 import org.opoo.press.util.ClassUtils;
-import org.opoo.util.PathUtils;
+import org.opoo.util.LayeredMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 /**
  * @author Alex Lin
  */
-public class FreeMarkerRenderer extends AbstractFreeMarkerRenderer {
+public class FreeMarkerRenderer extends AbstractFreeMarkerRenderer implements StreamingRenderer {
     private static final Logger log = LoggerFactory.getLogger(FreeMarkerRenderer.class);
     public static final String PROPERTY_PREFIX = "freemarker.";
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
 
     private Configuration configuration;
+    private final CachingObjectWrapper objectWrapper = new CachingObjectWrapper();
     private Site site;
     private File templateDir;
-    private File workingTemplateDir;
     private Map<String, TemplateModel> templateModels;
+    //site-level root map of each build -> shared layer, by identity
+    private final Cache<Map<?, ?>, Map<String, Object>> sharedLayers = CacheBuilder.newBuilder()
+            .weakKeys()
+            .build();
 
     //merge(null), recursive
     private String renderMethod;
     private WorkingTemplateHolder workingTemplateHolder;
 
-    private Map<String, Boolean> templatePreparedCache = new HashMap<String, Boolean>();
+    private final ConcurrentMap<String, Future<String>> preparedTemplates = new ConcurrentHashMap<String, Future<String>>();
+    private final ConcurrentMap<String, Future<Template>> compilingTemplates = new ConcurrentHashMap<String, Future<Template>>();
+    private final WorkingTemplateLoader workingTemplateLoader = new WorkingTemplateLoader();
+    private final Map<String, String> layoutContents = new ConcurrentHashMap<String, String>();
+    //merged templates of all pages, softly referenced
+    private final Cache<String, CompiledTemplate> compiledTemplates = CacheBuilder.newBuilder().softValues().build();
 
     public FreeMarkerRenderer(Site site) {
         super();
@@ -68,14 +93,9 @@ public class FreeMarkerRenderer extends AbstractFreeMarkerRenderer {
         templateDir = site.getTemplates();
         log.debug("Template directory: " + templateDir.getAbsolutePath());
 
-        //Working directory
-        workingTemplateDir = new File(site.getWorking(), "templates");
-        PathUtils.checkDir(workingTemplateDir, PathUtils.Strategy.CREATE_IF_NOT_EXISTS);
-        log.debug("Working template directory: {}", workingTemplateDir.getAbsolutePath());
-
         //config
         configuration = new Configuration();
-        configuration.setObjectWrapper(new DefaultObjectWrapper());
+        configuration.setObjectWrapper(objectWrapper);
         configuration.setTemplateLoader(buildTemplateLoader(site));
 
         Locale locale = site.getLocale();
@@ -111,6 +131,15 @@ public class FreeMarkerRenderer extends AbstractFreeMarkerRenderer {
                 templateModels.put(name, t);
             }
         }
+
+        //template models need build events, e.g. fragment cache
+        PluginManager pluginManager = site.getFactory().getPluginManager();
+        for (TemplateModel model : templateModels.values()) {
+            if (model instanceof Processor && !pluginManager.getProcessors().contains(model)) {
+                log.debug("Register template model as processor: {}", model.getClass().getName());
+                pluginManager.registerProcessor((Processor) model);
+            }
+        }
     }
 
     private void initializeAutoImportTemplates(Site site, Configuration configuration) {
@@ -136,7 +165,8 @@ public class FreeMarkerRenderer extends AbstractFreeMarkerRenderer {
     private TemplateLoader buildTemplateLoader(Site site) {
         try {
             List<TemplateLoader> loaders = new ArrayList<TemplateLoader>();
-            loaders.add(new FileTemplateLoader(workingTemplateDir));
+            //working and pre-rendered templates, in memory
+            loaders.add(workingTemplateLoader);
             loaders.add(new FileTemplateLoader(templateDir));
             loaders.add(new ClassTemplateLoader(AbstractFreeMarkerRenderer.class, "/org/opoo/press/templates"));
 
@@ -158,36 +188,95 @@ public class FreeMarkerRenderer extends AbstractFreeMarkerRenderer {
         return configuration;
     }
 
+    /**
+     * The layered root map of page is processed as a layered model, its base is
+     * wrapped once and shared by all pages. Template models of plugins are in the
+     * shared layer. Any other map is used as is and wrapped on lookup.
+     */
     @Override
-    protected void preProcess(Template template, Object rootMap) {
-        if (templateModels != null && !templateModels.isEmpty()) {
-            ((Map<String, Object>) rootMap).putAll(templateModels);
+    protected Object toDataModel(Object rootMap) {
+        if (!(rootMap instanceof Map)) {
+            return rootMap;
+        }
+
+        try {
+            if (rootMap instanceof LayeredMap) {
+                LayeredMap<?, ?> layered = (LayeredMap<?, ?>) rootMap;
+                if (layered.getBase() instanceof LayeredMap) {
+                    layered = LayeredMap.create(layered);
+                }
+                final LayeredMap<?, ?> map = layered;
+                Map<String, Object> shared = sharedLayers.get(map.getBase(), new Callable<Map<String, Object>>() {
+                    @Override
+                    public Map<String, Object> call() throws Exception {
+                        return LayeredHashModel.createSharedLayer(map.getBase(), templateModels,
+                                configuration.getObjectWrapper());
+                    }
+                });
+                return new LayeredHashModel(shared, map.getOverlay(), configuration.getObjectWrapper());
+            }
+
+            //the map may be changed later, do not copy or share it: values are wrapped
+            //on lookup and template models override them
+            Map<String, Object> overlay = templateModels != null
+                    ? Collections.<String, Object>unmodifiableMap(templateModels)
+                    : Collections.<String, Object>emptyMap();
+            return new LayeredHashModel((Map<?, ?>) rootMap, overlay, configuration.getObjectWrapper());
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Wrap data model failed", e.getCause());
+        }
+    }
+
+    /**
+     * Add or replace an in-memory working template, e.g. the output of pre_render.
+     *
+     * @param name template name
+     * @param template template content
+     */
+    public void putWorkingTemplate(String name, String template) {
+        if (!template.equals(workingTemplateLoader.getTemplate(name))) {
+            workingTemplateLoader.putTemplate(name, template, System.currentTimeMillis());
+            try {
+                configuration.removeTemplateFromCache(name);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            log.debug("Create working template: {}", name);
         }
     }
 
     @Override
     public void prepare() {
-        templatePreparedCache.clear();
+        preparedTemplates.clear();
+        layoutContents.clear();
+        objectWrapper.clear();
     }
 
     @Override
     public String render(Page base, Map<String, Object> rootMap) {
+        StringWriter out = new StringWriter();
+        render(base, rootMap, out);
+        return out.toString();
+    }
+
+    @Override
+    public void render(Page base, Map<String, Object> rootMap, Writer out) {
         if(!(base.getSource().getOrigin() instanceof FileOrigin)){
             log.debug("Origin is not FileOrigin, using recursive render method.");
-            return renderRecursive(base, rootMap);
+            renderRecursive(base, rootMap, out);
         }
         else
         //render methods: merge|recursive, default is merge
         if (renderMethod == null || "merge".equalsIgnoreCase(renderMethod)) {
-            return renderMergedTemplate(base, rootMap);
+            renderMergedTemplate(base, rootMap, out);
         } else if ("recursive".equalsIgnoreCase(renderMethod)) {
-            return renderRecursive(base, rootMap);
+            renderRecursive(base, rootMap, out);
         } else {
             throw new RuntimeException("Unknown render method: " + renderMethod);
         }
     }
 
-    private String renderMergedTemplate(Page base, Map<String, Object> rootMap) {
+    private void renderMergedTemplate(Page base, Map<String, Object> rootMap, Writer out) {
         String content = base.getContent();
         String layout = base.getLayout();
 
@@ -195,51 +284,57 @@ public class FreeMarkerRenderer extends AbstractFreeMarkerRenderer {
         boolean isValidLayout = isValidLayout(layout);
 
         if (isValidLayout) {
-            String templateName;
             if (isContentRenderRequired) {
                 //对模板进行合并
-                templateName = workingTemplateHolder.getMergedWorkingTemplate(layout, content, base.getSource());
+                Template template = workingTemplateHolder.getMergedWorkingTemplate(layout, content, base.getSource());
+                render(template, rootMap, out);
             } else {
-                templateName = workingTemplateHolder.getLayoutWorkingTemplate(layout);
+                String templateName = workingTemplateHolder.getLayoutWorkingTemplate(layout);
                 rootMap.put("content", content);
+                render(templateName, rootMap, out);
             }
-
-            content = render(templateName, rootMap);
         } else {
             //!isValidLayout && isContentRenderRequired
             if (isContentRenderRequired) {
-                content = renderContent(content, rootMap);
+                renderContent(content, rootMap, out);
             } else {
                 //!isValidLayout && !isContentRenderRequired
-                //content = content;
-                //do nothing
+                write(content, out);
             }
         }
-
-        return content;
     }
 
-    private String renderRecursive(Page base, Map<String, Object> rootMap) {
+    private void renderRecursive(Page base, Map<String, Object> rootMap, Writer out) {
         String content = base.getContent();
         String layout = base.getLayout();
 
         boolean isContentRenderRequired = isRenderRequired(site, base, content);
         boolean isValidLayout = isValidLayout(layout);
 
-        if (isContentRenderRequired) {
-            content = renderContent(content, rootMap);
-        }
-
         if (isValidLayout) {
+            if (isContentRenderRequired) {
+                content = renderContent(content, rootMap);
+            }
             String name = workingTemplateHolder.getLayoutWorkingTemplate(layout);
             rootMap.put("content", content);
-            content = render(name, rootMap);
+            render(name, rootMap, out);
+        } else if (isContentRenderRequired) {
+            renderContent(content, rootMap, out);
         } else {
-            //do nothing
-            //content = content;
+            write(content, out);
         }
+    }
 
-        return content;
+    private void write(String content, Writer out) {
+        if (content == null) {
+            return;
+        }
+        try {
+            out.write(content);
+            out.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
     }
 
     @Override
@@ -248,58 +343,67 @@ public class FreeMarkerRenderer extends AbstractFreeMarkerRenderer {
     }
 
     interface WorkingTemplateHolder {
-        String getMergedWorkingTemplate(String layout, String content, Source source);
+        Template getMergedWorkingTemplate(String layout, String content, Source source);
 
         String getLayoutWorkingTemplate(String layout);
     }
 
+    /**
+     * Working templates are built in memory. Merged templates are compiled and
+     * cached directly, the layout working templates are served to FreeMarker by
+     * the in-memory template loader, so parsed layouts are shared by all render
+     * threads.
+     */
     abstract class AbstractWorkingTemplateHolder implements WorkingTemplateHolder {
         @Override
-        public String getMergedWorkingTemplate(String layout, String content, Source source) {
+        public Template getMergedWorkingTemplate(String layout, String content, Source source) {
             //must be FileOrigin
             FileOrigin origin = (FileOrigin) source.getOrigin();
             String workingTemplateName = origin.getPath() + "/" + origin.getName() + "." + layout + ".ftl";
-            File sourceFile = origin.getFile();
-            prepareWorkingTemplate(workingTemplateName, sourceFile, layout, content);
-            return workingTemplateName;
+            return getCompiledTemplate(workingTemplateName, layout, content);
         }
 
-        void prepareWorkingTemplate(String workingTemplateName, File sourceFile, String layout, String content) {
-            if (templatePreparedCache.containsKey(workingTemplateName)) {
-                //already prepared
-                return;
-            }
-
-            File workingTemplateFile = new File(workingTemplateDir, workingTemplateName);
-
-            String layoutFilename = getLayoutFilename(layout);
-            File layoutFile = new File(templateDir, layoutFilename);
-
-            if (workingTemplateFile.exists()
-                    && (sourceFile == null || workingTemplateFile.lastModified() >= sourceFile.lastModified())
-                    && workingTemplateFile.lastModified() >= layoutFile.lastModified()) {
+        private Template getCompiledTemplate(final String workingTemplateName, String layout, String content) {
+            final String template = buildTemplateContent(layout, content);
+            final long hash = HASH_FUNCTION.hashString(template, Charsets.UTF_8).asLong();
 
-                log.debug("Working template exists and is newer than source file: {}", workingTemplateFile);
+            CompiledTemplate compiled = compiledTemplates.getIfPresent(workingTemplateName);
+            if (compiled != null && compiled.hash == hash) {
+                return compiled.template;
+            }
 
-            } else {
-                String template = buildTemplateContent(layout, layoutFile, content);
-                try {
-                    FileUtils.write(workingTemplateFile, template, "UTF-8");
-                    //workingTemplateFile.setLastModified(sourceFile.lastModified());
-                    log.debug("Create working template: {}", workingTemplateFile);
-                } catch (IOException e) {
-                    throw new RuntimeException("Write working template failed: " + workingTemplateFile, e);
+            //paginated pages share the same working template
+            String key = workingTemplateName + "#" + hash;
+            return computeOnce(compilingTemplates, key, true, new Callable<Template>() {
+                @Override
+                public Template call() throws Exception {
+                    CompiledTemplate compiled = compiledTemplates.getIfPresent(workingTemplateName);
+                    if (compiled == null || compiled.hash != hash) {
+                        compiled = new CompiledTemplate(hash, new Template(workingTemplateName,
+                                new StringReader(template), configuration, "UTF-8"));
+                        compiledTemplates.put(workingTemplateName, compiled);
+                        log.debug("Compile working template: {}", workingTemplateName);
+                    }
+                    return compiled.template;
                 }
-            }
+            });
+        }
 
-            templatePreparedCache.put(workingTemplateName, true);
+        void prepareWorkingTemplate(final String workingTemplateName, final String layout, final String content) {
+            computeOnce(preparedTemplates, workingTemplateName, false, new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    putWorkingTemplate(workingTemplateName, buildTemplateContent(layout, content));
+                    return workingTemplateName;
+                }
+            });
         }
 
         String getLayoutFilename(String layout) {
             return "_" + layout + ".ftl";
         }
 
-        protected abstract String buildTemplateContent(String layout, File layoutFile, String content);
+        protected abstract String buildTemplateContent(String layout, String content);
     }
 
     class NonMacroWorkingTemplateHolder extends AbstractWorkingTemplateHolder {
@@ -309,15 +413,18 @@ public class FreeMarkerRenderer extends AbstractFreeMarkerRenderer {
         }
 
         @Override
-        protected String buildTemplateContent(String layout, File layoutFile, String content) {
-            //String layoutFilename = getLayoutFilename(layout);
-            //File layoutFile = new File(templateDir, layoutFilename);
-            try {
-                String template = FileUtils.readFileToString(layoutFile, "UTF-8");
-                return StringUtils.replace(template, "${content}", content);
-            } catch (Exception e) {
-                throw new RuntimeException("Read layout file error: " + layoutFile, e);
+        protected String buildTemplateContent(String layout, String content) {
+            String template = layoutContents.get(layout);
+            if (template == null) {
+                File layoutFile = new File(templateDir, getLayoutFilename(layout));
+                try {
+                    template = FileUtils.readFileToString(layoutFile, "UTF-8");
+                } catch (Exception e) {
+                    throw new RuntimeException("Read layout file error: " + layoutFile, e);
+                }
+                layoutContents.put(layout, template);
             }
+            return StringUtils.replace(template, "${content}", content);
         }
     }
 
@@ -325,14 +432,12 @@ public class FreeMarkerRenderer extends AbstractFreeMarkerRenderer {
         @Override
         public String getLayoutWorkingTemplate(String layout) {
             String layoutTemplateName = "_" + layout + ".content.ftl";
-            //${templateDir}/_page.ftl
-            File layoutFile = new File(templateDir, getLayoutFilename(layout));
-            prepareWorkingTemplate(layoutTemplateName, layoutFile, layout, "${content}");
+            prepareWorkingTemplate(layoutTemplateName, layout, "${content}");
             return layoutTemplateName;
         }
 
         @Override
-        protected String buildTemplateContent(String layout, File layoutFile, String content) {
+        protected String buildTemplateContent(String layout, String content) {
             return new StringBuffer()
                     .append("<#include \"/_")
                     .append(layout)
@@ -346,4 +451,49 @@ public class FreeMarkerRenderer extends AbstractFreeMarkerRenderer {
                     .toString();
         }
     }
+
+    /**
+     * Compute the value of the key exactly once across the render threads, other
+     * threads wait for the result.
+     *
+     * @param remove remove the key once computed, or keep it as computed until next build
+     */
+    private static <T> T computeOnce(ConcurrentMap<String, Future<T>> tasks, String key, boolean remove,
+                                     Callable<T> callable) {
+        Future<T> future = tasks.get(key);
+        FutureTask<T> task = null;
+        if (future == null) {
+            task = new FutureTask<T>(callable);
+            future = tasks.putIfAbsent(key, task);
+            if (future == null) {
+                future = task;
+                task.run();
+            }
+        }
+
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while preparing working template: " + key, e);
+        } catch (ExecutionException e) {
+            //retry next time
+            tasks.remove(key, future);
+            throw new RuntimeException("Prepare working template failed: " + key, e.getCause());
+        } finally {
+            if (remove && future == task) {
+                tasks.remove(key, task);
+            }
+        }
+    }
+
+    private static class CompiledTemplate {
+        private final long hash;
+        private final Template template;
+
+        CompiledTemplate(long hash, Template template) {
+            this.hash = hash;
+            this.template = template;
+        }
+    }
 }
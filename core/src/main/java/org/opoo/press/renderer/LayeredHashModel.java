@@ -0,0 +1,134 @@
+/*
+ * Copyright 2013 Alex Lin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opoo.press.renderer;
+
+import freemarker.template.ObjectWrapper;
+import freemarker.template.SimpleCollection;
+import freemarker.template.TemplateCollectionModel;
+import freemarker.template.TemplateHashModelEx;
+import freemarker.template.TemplateModel;
+import freemarker.template.TemplateModelException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * FreeMarker root data model of a shared site-level layer and a per-page overlay.
+ * <p>
+ * The shared layer is wrapped once and used by all pages (and render threads),
+ * values are pre-wrapped unless their models are mutable (maps, collections and
+ * arrays are wrapped by {@link freemarker.template.SimpleHash} and friends, which
+ * cache wrapped values on read and are not thread safe), such values are wrapped
+ * on each lookup. The overlay is wrapped on lookup.
+ *
+ * @author Alex Lin
+ */
+public class LayeredHashModel implements TemplateHashModelEx {
+    private final Map<?, ?> shared;
+    private final Map<?, ?> overlay;
+    private final ObjectWrapper wrapper;
+
+    LayeredHashModel(Map<?, ?> shared, Map<?, ?> overlay, ObjectWrapper wrapper) {
+        this.shared = shared;
+        this.overlay = overlay;
+        this.wrapper = wrapper;
+    }
+
+    /**
+     * Build the shared layer.
+     *
+     * @param base site-level data
+     * @param templateModels template models, override the site-level data
+     * @param wrapper object wrapper
+     * @return shared layer
+     * @throws TemplateModelException if wrap failed
+     */
+    static Map<String, Object> createSharedLayer(Map<?, ?> base, Map<String, TemplateModel> templateModels,
+                                                 ObjectWrapper wrapper) throws TemplateModelException {
+        Map<String, Object> shared = new HashMap<String, Object>(base.size() + 16);
+        for (Map.Entry<?, ?> entry : base.entrySet()) {
+            String key = String.valueOf(entry.getKey());
+            Object value = entry.getValue();
+            if (value == null || value instanceof Map || value instanceof Collection || value.getClass().isArray()) {
+                shared.put(key, value);
+            } else {
+                shared.put(key, wrapper.wrap(value));
+            }
+        }
+        if (templateModels != null) {
+            shared.putAll(templateModels);
+        }
+        return shared;
+    }
+
+    @Override
+    public TemplateModel get(String key) throws TemplateModelException {
+        Object value;
+        if (overlay.containsKey(key)) {
+            value = overlay.get(key);
+        } else {
+            value = shared.get(key);
+        }
+        if (value == null) {
+            return null;
+        }
+        return value instanceof TemplateModel ? (TemplateModel) value : wrapper.wrap(value);
+    }
+
+    @Override
+    public boolean isEmpty() throws TemplateModelException {
+        return size() == 0;
+    }
+
+    @Override
+    public int size() throws TemplateModelException {
+        return keySet().size();
+    }
+
+    private Set<String> keySet() {
+        Set<String> keys = new LinkedHashSet<String>();
+        for (Object key : shared.keySet()) {
+            keys.add(String.valueOf(key));
+        }
+        for (Map.Entry<?, ?> entry : overlay.entrySet()) {
+            if (entry.getValue() != null) {
+                keys.add(String.valueOf(entry.getKey()));
+            } else {
+                keys.remove(String.valueOf(entry.getKey()));
+            }
+        }
+        return keys;
+    }
+
+    @Override
+    public TemplateCollectionModel keys() throws TemplateModelException {
+        return new SimpleCollection(keySet(), wrapper);
+    }
+
+    @Override
+    public TemplateCollectionModel values() throws TemplateModelException {
+        List<TemplateModel> values = new ArrayList<TemplateModel>();
+        for (String key : keySet()) {
+            values.add(get(key));
+        }
+        return new SimpleCollection(values, wrapper);
+    }
+}
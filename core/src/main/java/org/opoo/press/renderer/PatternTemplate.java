@@ -0,0 +1,168 @@
+/*
+ * Copyright 2013 Alex Lin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opoo.press.renderer;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compiled FreeMarker pattern, such as permalink <code>/${year}/${month}/${name}/</code>.
+ * <p>
+ * Compiled patterns are cached and shared between threads. Patterns of only
+ * literal text and simple <code>${name}</code> variables are expanded without
+ * FreeMarker if all the variables are strings in the map model, any other
+ * pattern or model is processed by a FreeMarker template.
+ *
+ * @author Alex Lin
+ */
+public abstract class PatternTemplate {
+    private static final Pattern VARIABLE = Pattern.compile("\\$\\{([A-Za-z_][A-Za-z0-9_]*)\\}");
+    private static final Configuration CONFIGURATION = new Configuration();
+
+    private static final LoadingCache<String, PatternTemplate> CACHE = CacheBuilder.newBuilder()
+            .maximumSize(1000)
+            .build(new CacheLoader<String, PatternTemplate>() {
+                @Override
+                public PatternTemplate load(String pattern) throws Exception {
+                    return compile(pattern);
+                }
+            });
+
+    /**
+     * Get the compiled template of the pattern.
+     *
+     * @param pattern the pattern
+     * @return compiled template
+     */
+    public static PatternTemplate get(String pattern) {
+        try {
+            return CACHE.getUnchecked(pattern);
+        } catch (UncheckedExecutionException e) {
+            throw new RuntimeException("Process template failed: " + pattern, e.getCause());
+        }
+    }
+
+    /**
+     * Expand the pattern.
+     *
+     * @param pattern the pattern
+     * @param rootMap data model
+     * @return the result
+     */
+    public static String process(String pattern, Object rootMap) {
+        return get(pattern).process(rootMap);
+    }
+
+    public abstract String process(Object rootMap);
+
+    private static PatternTemplate compile(String pattern) throws IOException {
+        FreeMarkerPatternTemplate template = new FreeMarkerPatternTemplate(pattern);
+        if (!isSimple(pattern)) {
+            return template;
+        }
+
+        List<String> literals = new ArrayList<String>();
+        List<String> names = new ArrayList<String>();
+        Matcher matcher = VARIABLE.matcher(pattern);
+        int index = 0;
+        while (matcher.find()) {
+            literals.add(pattern.substring(index, matcher.start()));
+            names.add(matcher.group(1));
+            index = matcher.end();
+        }
+        literals.add(pattern.substring(index));
+        return new SimplePatternTemplate(literals.toArray(new String[literals.size()]),
+                names.toArray(new String[names.size()]), template);
+    }
+
+    /**
+     * Whether the pattern contains simple variables only, i.e. no directives,
+     * interpolations with expressions or comments.
+     */
+    private static boolean isSimple(String pattern) {
+        String rest = VARIABLE.matcher(pattern).replaceAll("");
+        return !rest.contains("${") && !rest.contains("#{")
+                && !rest.contains("<#") && !rest.contains("</#")
+                && !rest.contains("[#") && !rest.contains("[/#")
+                && !rest.contains("<@") && !rest.contains("[@");
+    }
+
+    private static class FreeMarkerPatternTemplate extends PatternTemplate {
+        private final String pattern;
+        private final Template template;
+
+        FreeMarkerPatternTemplate(String pattern) throws IOException {
+            this.pattern = pattern;
+            this.template = new Template("tmp", new StringReader(pattern), CONFIGURATION, "UTF-8");
+        }
+
+        @Override
+        public String process(Object rootMap) {
+            try {
+                StringWriter writer = new StringWriter();
+                template.process(rootMap, writer);
+                writer.flush();
+                return writer.toString();
+            } catch (Exception e) {
+                throw new RuntimeException("Process template failed: " + pattern, e);
+            }
+        }
+    }
+
+    private static class SimplePatternTemplate extends PatternTemplate {
+        private final String[] literals;
+        private final String[] names;
+        private final PatternTemplate fallback;
+
+        SimplePatternTemplate(String[] literals, String[] names, PatternTemplate fallback) {
+            this.literals = literals;
+            this.names = names;
+            this.fallback = fallback;
+        }
+
+        @Override
+        public String process(Object rootMap) {
+            if (!(rootMap instanceof Map)) {
+                return fallback.process(rootMap);
+            }
+
+            Map<?, ?> map = (Map<?, ?>) rootMap;
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < names.length; i++) {
+                Object value = map.get(names[i]);
+                //numbers, dates and missing values are handled (formatted or failed) by FreeMarker
+                if (!(value instanceof String)) {
+                    return fallback.process(rootMap);
+                }
+                sb.append(literals[i]).append((String) value);
+            }
+            return sb.append(literals[names.length]).toString();
+        }
+    }
+}
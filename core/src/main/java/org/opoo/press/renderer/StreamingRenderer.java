@@ -0,0 +1,39 @@
+/*
+ * Copyright 2013 Alex Lin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opoo.press.renderer;
+
+import org.opoo.press.Page;
+import org.opoo.press.Renderer;
+
+import java.io.Writer;
+import java.util.Map;
+
+/**
+ * Renderer which can render the page (content and layout) straight into a writer.
+ *
+ * @author Alex Lin
+ */
+public interface StreamingRenderer extends Renderer {
+
+    /**
+     * Render the page into the writer.
+     *
+     * @param page the page
+     * @param rootMap data model
+     * @param out the writer
+     */
+    void render(Page page, Map<String, Object> rootMap, Writer out);
+}
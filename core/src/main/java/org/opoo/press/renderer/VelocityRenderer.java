@@ -20,7 +20,6 @@ import org.apache.velocity.app.VelocityEngine;
 import org.apache.velocity.context.Context;
 import org.apache.velocity.runtime.RuntimeConstants;
 import org.opoo.press.Page;
-import org.opoo.press.Renderer;
 import org.opoo.press.Site;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -28,13 +27,15 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.util.Map;
 import java.util.Properties;
 
 /**
  * @author Alex Lin
  */
-public class VelocityRenderer extends AbstractVelocityRenderer implements Renderer {
+public class VelocityRenderer extends AbstractVelocityRenderer implements StreamingRenderer {
     private static final Logger log = LoggerFactory.getLogger(VelocityRenderer.class);
 
     private final VelocityEngine velocityEngine;
@@ -92,14 +93,26 @@ public class VelocityRenderer extends AbstractVelocityRenderer implements Render
         velocityEngine.setProperty(RuntimeConstants.FILE_RESOURCE_LOADER_PATH, newPath);
         velocityEngine.setProperty(RuntimeConstants.FILE_RESOURCE_LOADER_CACHE, true);
 
+        //content templates
+        initializeStringResourceLoader(velocityEngine);
+
         //init the engine
         velocityEngine.init();
     }
 
     @Override
     public String render(Page base, Object rootMap) {
-        Context context = convert(rootMap);
+        StringWriter out = new StringWriter();
+        render(base, convert(rootMap), out);
+        return out.toString();
+    }
 
+    @Override
+    public void render(Page base, Map<String, Object> rootMap, Writer out) {
+        render(base, convert(rootMap), out);
+    }
+
+    private void render(Page base, Context context, Writer out) {
         String content = base.getContent();
         String layout = base.getLayout();
 
@@ -110,15 +123,17 @@ public class VelocityRenderer extends AbstractVelocityRenderer implements Render
             content = renderContent(content, context);
         }
 
-        if (isValidLayout) {
-            context.put("content", content);
-            content = render("_" + layout + ".vm", context);
-        } else {
-            //do nothing
-            //content = content;
+        try {
+            if (isValidLayout) {
+                context.put("content", content);
+                render("_" + layout + ".vm", context, out);
+            } else if (content != null) {
+                out.write(content);
+            }
+            out.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
         }
-
-        return content;
     }
 
     @Override
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2013 Alex Lin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opoo.press.renderer;
+
+import freemarker.cache.TemplateLoader;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * In-memory template loader, templates are put and looked up by render
+ * threads concurrently. The StringTemplateLoader of FreeMarker is not thread
+ * safe.
+ *
+ * @author Alex Lin
+ */
+public class WorkingTemplateLoader implements TemplateLoader {
+    private final ConcurrentMap<String, WorkingTemplateSource> templates =
+            new ConcurrentHashMap<String, WorkingTemplateSource>();
+
+    /**
+     * @param name template name
+     * @param content template content
+     * @param lastModified last modified time
+     */
+    public void putTemplate(String name, String content, long lastModified) {
+        templates.put(name, new WorkingTemplateSource(name, content, lastModified));
+    }
+
+    /**
+     * @param name template name
+     * @return the template content, or null if not found
+     */
+    public String getTemplate(String name) {
+        WorkingTemplateSource source = templates.get(name);
+        return source != null ? source.content : null;
+    }
+
+    @Override
+    public Object findTemplateSource(String name) {
+        return templates.get(name);
+    }
+
+    @Override
+    public long getLastModified(Object templateSource) {
+        return ((WorkingTemplateSource) templateSource).lastModified;
+    }
+
+    @Override
+    public Reader getReader(Object templateSource, String encoding) {
+        return new StringReader(((WorkingTemplateSource) templateSource).content);
+    }
+
+    @Override
+    public void closeTemplateSource(Object templateSource) {
+    }
+
+    /**
+     * Immutable snapshot of a template, equal to the other versions of the same name.
+     */
+    private static class WorkingTemplateSource {
+        private final String name;
+        private final String content;
+        private final long lastModified;
+
+        private WorkingTemplateSource(String name, String content, long lastModified) {
+            this.name = name;
+            this.content = content;
+            this.lastModified = lastModified;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof WorkingTemplateSource && name.equals(((WorkingTemplateSource) obj).name);
+        }
+
+        @Override
+        public int hashCode() {
+            return name.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
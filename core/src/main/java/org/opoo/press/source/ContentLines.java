@@ -0,0 +1,81 @@
+/*
+ * Copyright 2013 Alex Lin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opoo.press.source;
+
+import org.apache.commons.io.IOUtils;
+import org.opoo.press.Source;
+
+/**
+ * The content of a source as the line based parser produced it: each line
+ * ends with the line separator of the system, and triple-dashed lines in the
+ * content are dropped.
+ *
+ * @author Alex Lin
+ */
+public abstract class ContentLines {
+
+    /**
+     * @param content the content after the front matter, as in the file
+     * @return the content in lines
+     */
+    public static String normalize(String content) {
+        if (content.length() == 0 || isNormalized(content)) {
+            return content;
+        }
+
+        StringBuilder sb = new StringBuilder(content.length() + 16);
+        int length = content.length();
+        int start = 0;
+        while (start < length) {
+            int end = start;
+            while (end < length && content.charAt(end) != '\n' && content.charAt(end) != '\r') {
+                end++;
+            }
+            if (!isTripleDashedLine(content, start, end)) {
+                sb.append(content, start, end).append(IOUtils.LINE_SEPARATOR);
+            }
+            if (end < length && content.charAt(end) == '\r') {
+                end++;
+            }
+            if (end < length && content.charAt(end) == '\n') {
+                end++;
+            }
+            start = end;
+        }
+        return sb.toString();
+    }
+
+    private static boolean isNormalized(String content) {
+        if (!"\n".equals(IOUtils.LINE_SEPARATOR)
+                || content.indexOf('\r') >= 0
+                || content.charAt(content.length() - 1) != '\n') {
+            return false;
+        }
+        int start = 0;
+        while (start < content.length()) {
+            int end = content.indexOf('\n', start);
+            if (isTripleDashedLine(content, start, end)) {
+                return false;
+            }
+            start = end + 1;
+        }
+        return true;
+    }
+
+    private static boolean isTripleDashedLine(String content, int start, int end) {
+        return end - start == 3 && content.startsWith(Source.TRIPLE_DASHED_LINE, start);
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2013 Alex Lin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opoo.press.source;
+
+import com.google.common.base.Charsets;
+import org.apache.commons.io.IOUtils;
+import org.opoo.press.FileOrigin;
+import org.opoo.press.Origin;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+
+/**
+ * Source holds the front matter only, the content is read from the region of
+ * the source file after the front matter on each call of {@link #getContent()},
+ * it is never kept in memory. The content is scanned for template syntax when
+ * the file is read by the source walker. The size and last modified time of the
+ * file are recorded on creation, the content is not read if the file changed.
+ *
+ * @author Alex Lin
+ */
+public class FileRegionSource implements TemplateAwareSource, Serializable {
+    private static final long serialVersionUID = 3325384958291547311L;
+
+    private final FileOrigin origin;
+    private final Map<String, Object> frontMatter;
+    private final long offset;
+    private final long length;
+    private final boolean templateSyntax;
+    private final long lastModified;
+
+    /**
+     * @param origin the source file
+     * @param frontMatter front matter
+     * @param offset offset of the content in file
+     * @param length byte length of the content
+     * @param templateSyntax whether the content contains template syntax
+     */
+    public FileRegionSource(FileOrigin origin, Map<String, Object> frontMatter, long offset, long length,
+                            boolean templateSyntax) {
+        this.origin = origin;
+        this.frontMatter = frontMatter;
+        this.offset = offset;
+        this.length = length;
+        this.templateSyntax = templateSyntax;
+        this.lastModified = origin.getFile().lastModified();
+    }
+
+    @Override
+    public Origin getOrigin() {
+        return origin;
+    }
+
+    @Override
+    public Map<String, Object> getMeta() {
+        return frontMatter;
+    }
+
+    @Override
+    public String getContent() {
+        if (length == 0) {
+            return "";
+        }
+
+        File file = origin.getFile();
+        if (file.length() != offset + length || file.lastModified() != lastModified) {
+            throw new RuntimeException("Source file changed after read: " + file);
+        }
+
+        FileInputStream stream = null;
+        try {
+            stream = new FileInputStream(file);
+            FileChannel channel = stream.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate((int) length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, offset + buffer.position()) < 0) {
+                    throw new RuntimeException("Source file truncated after read: " + file);
+                }
+            }
+            buffer.flip();
+            return ContentLines.normalize(Charsets.UTF_8.decode(buffer).toString());
+        } catch (IOException e) {
+            throw new RuntimeException("Read source content failed: " + file, e);
+        } finally {
+            IOUtils.closeQuietly(stream);
+        }
+    }
+
+    @Override
+    public boolean hasTemplateSyntax() {
+        return templateSyntax;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public long getLength() {
+        return length;
+    }
+}
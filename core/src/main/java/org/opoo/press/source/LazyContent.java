@@ -0,0 +1,81 @@
+/*
+ * Copyright 2013 Alex Lin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opoo.press.source;
+
+import com.google.common.base.Charsets;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+
+/**
+ * Source content backed by a slice of the UTF-8 encoded source file,
+ * decoded on first access, see {@link ContentLines}.
+ *
+ * @author Alex Lin
+ */
+public class LazyContent implements CharSequence, Serializable {
+    private static final long serialVersionUID = -6151283458283546283L;
+
+    private transient volatile ByteBuffer bytes;
+    private transient volatile String string;
+
+    public LazyContent(ByteBuffer bytes) {
+        this.bytes = bytes;
+    }
+
+    /**
+     * @return whether the content has been decoded
+     */
+    public boolean isDecoded() {
+        return string != null;
+    }
+
+    @Override
+    public String toString() {
+        String s = string;
+        if (s == null) {
+            synchronized (this) {
+                s = string;
+                if (s == null) {
+                    s = ContentLines.normalize(Charsets.UTF_8.decode(bytes.duplicate()).toString());
+                    string = s;
+                    //release the buffer, it may be a mapped file region
+                    bytes = null;
+                }
+            }
+        }
+        return s;
+    }
+
+    @Override
+    public int length() {
+        return toString().length();
+    }
+
+    @Override
+    public char charAt(int index) {
+        return toString().charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().subSequence(start, end);
+    }
+
+    private Object writeReplace() {
+        return toString();
+    }
+}
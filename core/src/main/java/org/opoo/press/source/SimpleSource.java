@@ -16,7 +16,6 @@
 package org.opoo.press.source;
 
 import org.opoo.press.Origin;
-import org.opoo.press.Source;
 
 import java.io.Serializable;
 import java.util.Map;
@@ -24,10 +23,11 @@ import java.util.Map;
 /**
  * @author Alex Lin
  */
-public class SimpleSource implements Source, Serializable {
+public class SimpleSource implements TemplateAwareSource, Serializable {
     private final Map<String, Object> frontMatter;
-    private final String content;
+    private final CharSequence content;
     private final Origin origin;
+    private volatile Boolean templateSyntax;
 
     /**
      * @param origin
@@ -36,12 +36,34 @@ public class SimpleSource implements Source, Serializable {
      */
     public SimpleSource(Origin origin,
                         Map<String, Object> frontMatter, String content) {
+        this(origin, frontMatter, (CharSequence) content);
+    }
+
+    /**
+     * @param origin
+     * @param frontMatter
+     * @param content content, may be decoded lazily, see {@link LazyContent}
+     */
+    public SimpleSource(Origin origin,
+                        Map<String, Object> frontMatter, CharSequence content) {
         super();
         this.origin = origin;
         this.frontMatter = frontMatter;
         this.content = content;
     }
 
+    /**
+     * @param origin
+     * @param frontMatter
+     * @param content content, may be decoded lazily, see {@link LazyContent}
+     * @param templateSyntax whether the content contains template syntax, see {@link TemplateSyntax}
+     */
+    public SimpleSource(Origin origin,
+                        Map<String, Object> frontMatter, CharSequence content, boolean templateSyntax) {
+        this(origin, frontMatter, content);
+        this.templateSyntax = templateSyntax;
+    }
+
     /* (non-Javadoc)
      * @see org.opoo.press.Source#getOrigin()
      */
@@ -63,6 +85,16 @@ public class SimpleSource implements Source, Serializable {
      */
     @Override
     public String getContent() {
-        return content;
+        return content != null ? content.toString() : null;
+    }
+
+    @Override
+    public boolean hasTemplateSyntax() {
+        Boolean b = templateSyntax;
+        if (b == null) {
+            b = TemplateSyntax.scan(content);
+            templateSyntax = b;
+        }
+        return b;
     }
 }
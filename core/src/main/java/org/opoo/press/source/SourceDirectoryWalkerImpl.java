@@ -15,12 +15,17 @@
  */
 package org.opoo.press.source;
 
+import com.google.common.base.Charsets;
 import org.apache.commons.io.IOUtils;
-import org.apache.commons.io.LineIterator;
 import org.opoo.press.OriginVisitor;
+import org.opoo.press.Site;
+import org.opoo.press.SiteAware;
 import org.opoo.press.Source;
 import org.opoo.press.SourceDirectoryWalker;
 import org.opoo.press.SourceVisitor;
+import org.opoo.press.impl.SiteImpl;
+import org.opoo.press.task.RunnableTask;
+import org.opoo.press.task.TaskExecutor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.yaml.snakeyaml.Yaml;
@@ -29,37 +34,94 @@ import java.io.File;
 import java.io.FileFilter;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 /**
  * @author Alex Lin
  */
-public class SourceDirectoryWalkerImpl implements SourceDirectoryWalker {
+public class SourceDirectoryWalkerImpl implements SourceDirectoryWalker, SiteAware {
     private static final Logger log = LoggerFactory.getLogger(SourceDirectoryWalkerImpl.class);
 
+    /**
+     * Bytes read first to find the front matter.
+     */
+    private static final int HEAD_SIZE = 8192;
+
+    /**
+     * Files larger than this are mapped into memory instead of reading into heap.
+     */
+    private static final int MAPPED_FILE_THRESHOLD = 256 * 1024;
+
+    /**
+     * Max idle Yaml instances kept for reuse.
+     */
+    private static final int YAML_POOL_SIZE = Runtime.getRuntime().availableProcessors() * 2;
+
+    /**
+     * Yaml is not thread safe, an instance is borrowed by one parsing task at a time.
+     * Not kept per thread: files are parsed in I/O tasks, which may run in a new
+     * (virtual) thread each.
+     */
+    private static final BlockingQueue<Yaml> YAML_POOL = new ArrayBlockingQueue<Yaml>(YAML_POOL_SIZE);
+
+    private TaskExecutor taskExecutor;
+    private boolean lazySource = false;
+
     @Override
-    public void walk(File sourceDirectory, FileFilter fileFilter, OriginVisitor visitor) {
-        walk(sourceDirectory, fileFilter, visitor, sourceDirectory, "");
+    public void setSite(Site site) {
+        lazySource = site.getConfig().get("lazy_source", true);
+        if (site instanceof SiteImpl) {
+            taskExecutor = ((SiteImpl) site).getTaskExecutor();
+        }
+    }
+
+    @Override
+    public void walk(File sourceDirectory, FileFilter fileFilter, final OriginVisitor visitor) {
+        if (taskExecutor == null) {
+            walk(sourceDirectory, fileFilter, visitor, sourceDirectory, "");
+            return;
+        }
+
+        //list files first, then read and parse them in I/O threads
+        List<FileOriginImpl> origins = new ArrayList<FileOriginImpl>();
+        listOrigins(sourceDirectory, fileFilter, origins, sourceDirectory, "");
+        taskExecutor.runIO(origins, new RunnableTask<FileOriginImpl>() {
+            @Override
+            public void run(FileOriginImpl origin) {
+                visitOrigin(origin, visitor);
+            }
+        });
     }
 
     private void walk(File sourceDirectory, FileFilter fileFilter, OriginVisitor visitor, File parent, String path) {
         File[] files = parent.listFiles(fileFilter);
         for (File file : files) {
             if (file.isFile()) {
-                visitFile(file, sourceDirectory, path, visitor);
+                visitOrigin(new FileOriginImpl(file, sourceDirectory, path), visitor);
             } else if (file.isDirectory()) {
                 walk(sourceDirectory, fileFilter, visitor, file, path + "/" + file.getName());
             }
         }
     }
 
-    private void visitFile(File file, File sourceDirectory, String path, OriginVisitor visitor) {
-        FileOriginImpl origin = new FileOriginImpl(file, sourceDirectory, path);
+    private void listOrigins(File sourceDirectory, FileFilter fileFilter, List<FileOriginImpl> origins, File parent, String path) {
+        File[] files = parent.listFiles(fileFilter);
+        for (File file : files) {
+            if (file.isFile()) {
+                origins.add(new FileOriginImpl(file, sourceDirectory, path));
+            } else if (file.isDirectory()) {
+                listOrigins(sourceDirectory, fileFilter, origins, file, path + "/" + file.getName());
+            }
+        }
+    }
 
+    private void visitOrigin(FileOriginImpl origin, OriginVisitor visitor) {
         if (visitor instanceof SourceVisitor) {
             SourceVisitor sourceVisitor = (SourceVisitor) visitor;
             try {
@@ -74,83 +136,199 @@ public class SourceDirectoryWalkerImpl implements SourceDirectoryWalker {
     }
 
     protected Source parse(FileOriginImpl origin) throws NoFrontMatterException {
-        List<String> metaLines = new ArrayList<String>();
-        List<String> contentLines = new ArrayList<String>();
-        InputStream stream = null;
-        List<String> currentList = metaLines;
+        File file = origin.getFile();
+        FileInputStream stream = null;
         try {
-            stream = new FileInputStream(origin.getFile());
-            LineIterator iterator = IOUtils.lineIterator(stream, "UTF-8");
-
-            if (!iterator.hasNext()) {
-                throw new RuntimeException("File not content: " + origin.getFile());
+            stream = new FileInputStream(file);
+            FileChannel channel = stream.getChannel();
+            long size = channel.size();
+            if (size == 0) {
+                throw new RuntimeException("File not content: " + file);
             }
 
-            String line = iterator.next();
-            if (!isFrontMatterStartLine(line, origin)) {
-                log.debug("Maybe a static file: " + origin.getFile());
+            //read the head only, check the first line before reading the (maybe binary) file
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(size, HEAD_SIZE));
+            readFully(channel, buffer);
+            int metaStart = getFrontMatterStartLineLength(buffer, origin);
+            if (metaStart < 0) {
+                log.debug("Maybe a static file: " + file);
                 throw new NoFrontMatterException(origin);
             }
 
-            boolean hasFrontMatterEndLine = false;
-            //process headers
-            while (iterator.hasNext()) {
-                line = iterator.next();
-                if (isFrontMatterEndLine(line)) {
-                    hasFrontMatterEndLine = true;
-                    currentList = contentLines;
+            //find the front-matter end line in place, read more if not in the head
+            int lineStart = metaStart;
+            int metaEnd = -1;
+            int contentStart = -1;
+            while (metaEnd < 0) {
+                int limit = buffer.limit();
+                boolean eof = limit == size;
+                int lineEnd = indexOf(buffer, (byte) '\n', lineStart, limit);
+                if (lineEnd < 0 && !eof) {
+                    buffer = grow(channel, buffer, size);
                     continue;
                 }
-                currentList.add(line);
+                if (lineStart >= limit) {
+                    break;
+                }
+
+                int next = lineEnd < 0 ? limit : lineEnd + 1;
+                if (lineEnd < 0) {
+                    lineEnd = limit;
+                }
+                if (lineEnd > lineStart && buffer.get(lineEnd - 1) == '\r') {
+                    lineEnd--;
+                }
+                if (isTripleDashedLine(buffer, lineStart, lineEnd)) {
+                    metaEnd = lineStart;
+                    contentStart = next;
+                }
+                lineStart = next;
             }
 
-            if (!hasFrontMatterEndLine) {
-                log.debug("Maybe a static file: " + origin.getFile());
+            if (metaEnd < 0) {
+                log.debug("Maybe a static file: " + file);
                 throw new NoFrontMatterException(origin);
             }
+
+            String meta = Charsets.UTF_8.decode(slice(buffer, metaStart, metaEnd)).toString();
+            @SuppressWarnings("unchecked")
+            Map<String, Object> map = (Map<String, Object>) loadYaml(meta);
+
+            long contentLength = size - contentStart;
+            if (lazySource) {
+                //scan the bytes once while reading, the content is not kept
+                ByteBuffer head = slice(buffer, contentStart, buffer.limit());
+                boolean templateSyntax = TemplateSyntax.scan(head);
+                if (!templateSyntax && buffer.limit() < size) {
+                    //the rest is mapped, not read into heap
+                    templateSyntax = TemplateSyntax.scan(channel.map(FileChannel.MapMode.READ_ONLY, contentStart, contentLength));
+                }
+                return createSource(origin, map, contentStart, contentLength, templateSyntax);
+            }
+
+            ByteBuffer content;
+            if (buffer.limit() == size) {
+                content = slice(buffer, contentStart, buffer.limit());
+            } else if (contentLength > MAPPED_FILE_THRESHOLD) {
+                content = channel.map(FileChannel.MapMode.READ_ONLY, contentStart, contentLength);
+            } else {
+                content = ByteBuffer.allocate((int) contentLength);
+                content.put(slice(buffer, contentStart, buffer.limit()));
+                readFully(channel, content);
+            }
+            //scan the bytes once, before decoded
+            boolean templateSyntax = TemplateSyntax.scan(content);
+            return createSource(origin, map, new LazyContent(content), templateSyntax);
         } catch (IOException e) {
             throw new RuntimeException(e);
         } finally {
             IOUtils.closeQuietly(stream);
         }
+    }
 
-        StringWriter metaWriter = new StringWriter();
-        StringWriter contentWriter = new StringWriter();
+    private static Object loadYaml(String yaml) {
+        Yaml instance = YAML_POOL.poll();
+        if (instance == null) {
+            instance = new Yaml();
+        }
         try {
-            IOUtils.writeLines(metaLines, null, metaWriter);
-            IOUtils.writeLines(contentLines, null, contentWriter);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+            return instance.load(yaml);
         } finally {
-            IOUtils.closeQuietly(contentWriter);
-            IOUtils.closeQuietly(metaWriter);
+            //dropped if the pool is full
+            YAML_POOL.offer(instance);
         }
+    }
 
-        @SuppressWarnings("unchecked")
-        Map<String, Object> map = (Map<String, Object>) new Yaml().load(metaWriter.toString());
-        String content = contentWriter.toString();
+    private static ByteBuffer grow(FileChannel channel, ByteBuffer buffer, long size) throws IOException {
+        ByteBuffer newBuffer = ByteBuffer.allocate((int) Math.min(size, buffer.capacity() * 2L));
+        buffer.rewind();
+        newBuffer.put(buffer);
+        readFully(channel, newBuffer);
+        return newBuffer;
+    }
 
-        return createSource(origin, map, content);
+    private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+            //read until the buffer is full
+        }
+        buffer.flip();
     }
 
     protected Source createSource(FileOriginImpl origin, Map<String, Object> map, String content) {
+        return createSource(origin, map, (CharSequence) content);
+    }
+
+    protected Source createSource(FileOriginImpl origin, Map<String, Object> map, CharSequence content) {
         return new SimpleSource(origin, map, content);
     }
 
-    private static boolean isFrontMatterStartLine(String line, FileOriginImpl origin) {
-        if (Source.TRIPLE_DASHED_LINE.equals(line)) {
-            return true;
+    /**
+     * @param origin source file
+     * @param map front matter
+     * @param content the content
+     * @param templateSyntax whether the content contains template syntax
+     * @return the source
+     */
+    protected Source createSource(FileOriginImpl origin, Map<String, Object> map, CharSequence content,
+                                  boolean templateSyntax) {
+        return new SimpleSource(origin, map, content, templateSyntax);
+    }
+
+    /**
+     * Create source which loads content on demand.
+     *
+     * @param origin source file
+     * @param map front matter
+     * @param offset offset of the content in file
+     * @param length byte length of the content
+     * @param templateSyntax whether the content contains template syntax
+     * @return the source
+     */
+    protected Source createSource(FileOriginImpl origin, Map<String, Object> map, long offset, long length,
+                                  boolean templateSyntax) {
+        return new FileRegionSource(origin, map, offset, length, templateSyntax);
+    }
+
+    /**
+     * @return length of the first line include line separator, or -1 if not the front-matter start line
+     */
+    private static int getFrontMatterStartLineLength(ByteBuffer head, FileOriginImpl origin) {
+        int start = 0;
+        int limit = head.limit();
+        if (limit >= 3 && head.get(0) == (byte) 0xEF && head.get(1) == (byte) 0xBB && head.get(2) == (byte) 0xBF) {
+            log.debug("UTF-8 with BOM file: " + origin.getFile());
+            start = 3;
+        }
+        if (limit < start + 3 || !isTripleDashedLine(head, start, start + 3)) {
+            return -1;
         }
-        if (line.length() == 4) {
-            if (65279 == line.charAt(0) && Source.TRIPLE_DASHED_LINE.equals(line.substring(1))) {
-                log.debug("UTF-8 with BOM file: " + origin.getFile());
-                return true;
+        int i = start + 3;
+        if (i < limit && head.get(i) == '\r') {
+            i++;
+        }
+        if (i < limit && head.get(i) == '\n') {
+            return i + 1;
+        }
+        return -1;
+    }
+
+    private static boolean isTripleDashedLine(ByteBuffer buffer, int start, int end) {
+        return end - start == 3 && buffer.get(start) == '-' && buffer.get(start + 1) == '-' && buffer.get(start + 2) == '-';
+    }
+
+    private static int indexOf(ByteBuffer buffer, byte b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) == b) {
+                return i;
             }
         }
-        return false;
+        return -1;
     }
 
-    private static boolean isFrontMatterEndLine(String line) {
-        return Source.TRIPLE_DASHED_LINE.equals(line);
+    private static ByteBuffer slice(ByteBuffer buffer, int start, int end) {
+        ByteBuffer dup = buffer.duplicate();
+        dup.limit(end);
+        dup.position(start);
+        return dup.slice();
     }
 }
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2013 Alex Lin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opoo.press.source;
+
+import org.opoo.press.Source;
+
+/**
+ * Source which knows whether its content contains template syntax, the
+ * content is scanned once when it is read.
+ *
+ * @author Alex Lin
+ * @see TemplateSyntax
+ */
+public interface TemplateAwareSource extends Source {
+
+    /**
+     * @return false if the content has no template syntax and need not be rendered
+     */
+    boolean hasTemplateSyntax();
+}
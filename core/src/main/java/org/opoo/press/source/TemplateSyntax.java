@@ -0,0 +1,93 @@
+/*
+ * Copyright 2013 Alex Lin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opoo.press.source;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Single pass scan for the template markers checked by <code>auto_render_content</code>:
+ * a directive (<code>&lt;#</code> and <code>&gt;</code>) or an interpolation
+ * (<code>${</code> and <code>}</code>).
+ * <p>
+ * The markers are ASCII, the UTF-8 encoded bytes are scanned without decoding.
+ *
+ * @author Alex Lin
+ */
+public abstract class TemplateSyntax {
+    private static final int DIRECTIVE_START = 1;
+    private static final int DIRECTIVE_END = 2;
+    private static final int INTERPOLATION_START = 4;
+    private static final int INTERPOLATION_END = 8;
+
+    /**
+     * @param bytes UTF-8 encoded content, from position to limit, the buffer is not modified
+     * @return whether the content contains template syntax
+     */
+    public static boolean scan(ByteBuffer bytes) {
+        int found = 0;
+        int prev = 0;
+        for (int i = bytes.position(), limit = bytes.limit(); i < limit; i++) {
+            int b = bytes.get(i);
+            found = mark(found, prev, b);
+            if (isFound(found)) {
+                return true;
+            }
+            prev = b;
+        }
+        return false;
+    }
+
+    /**
+     * @param content the content
+     * @return whether the content contains template syntax
+     */
+    public static boolean scan(CharSequence content) {
+        if (content == null) {
+            return false;
+        }
+        int found = 0;
+        int prev = 0;
+        for (int i = 0, length = content.length(); i < length; i++) {
+            int c = content.charAt(i);
+            found = mark(found, prev, c);
+            if (isFound(found)) {
+                return true;
+            }
+            prev = c;
+        }
+        return false;
+    }
+
+    private static int mark(int found, int prev, int c) {
+        switch (c) {
+            case '#':
+                return prev == '<' ? found | DIRECTIVE_START : found;
+            case '>':
+                return found | DIRECTIVE_END;
+            case '{':
+                return prev == '$' ? found | INTERPOLATION_START : found;
+            case '}':
+                return found | INTERPOLATION_END;
+            default:
+                return found;
+        }
+    }
+
+    private static boolean isFound(int found) {
+        return (found & (DIRECTIVE_START | DIRECTIVE_END)) == (DIRECTIVE_START | DIRECTIVE_END)
+                || (found & (INTERPOLATION_START | INTERPOLATION_END)) == (INTERPOLATION_START | INTERPOLATION_END);
+    }
+}
@@ -15,10 +15,12 @@
  */
 package org.opoo.press.task;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.opoo.press.SiteConfig;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Callable;
@@ -27,19 +29,45 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
 
 /**
+ * Executes build tasks in parallel.
+ * <p>
+ * A work-stealing <code>ForkJoinPool</code> is used if the runtime supports it (Java 7+),
+ * tasks of a list are split recursively so idle threads steal work from busy threads.
+ * Otherwise falls back to a fixed thread pool.
+ * <p>
+ * I/O bound tasks (reading sources, writing pages, copying static files) run in a separate
+ * executor, using a virtual thread per task if the runtime supports it (Java 21+), or a
+ * fixed thread pool of <code>io_threads</code> threads. CPU bound tasks (converting,
+ * rendering) stay in the pool sized to the available processors. At most
+ * <code>io_queue_size</code> submitted I/O tasks are pending at a time, submitting more
+ * blocks until one of them completes.
+ * <p>
+ * The executors are created on first use and discarded by {@link #shutdown()}, all
+ * threads are daemon threads.
+ *
  * @author Alex Lin
  */
 public class TaskExecutor {
     /**
-     * Default thread count.
+     * Default thread count, the number of available processors.
      */
-    public static final int DEFAULT_THREADS = 1;
+    public static final int DEFAULT_THREADS = Runtime.getRuntime().availableProcessors();
 
     private static final Logger log = LoggerFactory.getLogger(TaskExecutor.class);
     private ExecutorService executorService;
+    private ExecutorService ioExecutorService;
+    private int threadsCount;
+    private boolean forkJoin;
+    private boolean virtualThreads;
+    private int ioThreadsCount;
+    private Semaphore ioPermits;
 
     public TaskExecutor(SiteConfig config) {
         //thread count
@@ -50,15 +78,95 @@ public class TaskExecutor {
         if (threadsCount <= 0) {
             threadsCount = DEFAULT_THREADS;
         }
+        this.threadsCount = threadsCount;
         if (threadsCount > 1) {
-            executorService = Executors.newFixedThreadPool(threadsCount);
-            log.info("Executing build in threads: " + threadsCount);
+            forkJoin = isForkJoinSupported();
+            log.info("Executing build in threads: {}{}", threadsCount, forkJoin ? " (fork/join)" : "");
+
+            virtualThreads = config.get("virtual_threads", true) && isVirtualThreadSupported();
+            ioThreadsCount = config.get("io_threads", threadsCount * 2);
+            if (virtualThreads) {
+                log.info("Executing I/O tasks in virtual threads.");
+            } else {
+                log.info("Executing I/O tasks in threads: {}", ioThreadsCount);
+            }
+
+            int ioQueueSize = config.get("io_queue_size", threadsCount * 4);
+            ioPermits = new Semaphore(Math.max(1, ioQueueSize));
         } else {
             log.info("Executing build in single thread.");
         }
     }
 
+    private static boolean isVirtualThreadSupported() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            log.debug("Virtual threads not supported.");
+            return false;
+        }
+    }
+
+    private static ExecutorService createVirtualThreadExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (Exception e) {
+            throw new RuntimeException("Create virtual thread executor failed.", e);
+        }
+    }
+
+    private static ThreadFactory createThreadFactory(String nameFormat) {
+        return new ThreadFactoryBuilder().setNameFormat(nameFormat).setDaemon(true).build();
+    }
+
+    /**
+     * @return the number of threads executing CPU bound tasks, 1 in single thread mode
+     */
+    public int getThreadsCount() {
+        return threadsCount;
+    }
+
+    /**
+     * @return the executor of CPU bound tasks, null in single thread mode
+     */
+    private synchronized ExecutorService getExecutorService() {
+        if (executorService == null && threadsCount > 1) {
+            executorService = forkJoin ? ForkJoinSupport.createPool(threadsCount)
+                    : Executors.newFixedThreadPool(threadsCount, createThreadFactory("opoopress-%d"));
+        }
+        return executorService;
+    }
+
+    /**
+     * @return the executor of I/O bound tasks, null in single thread mode
+     */
+    private synchronized ExecutorService getIOExecutorService() {
+        if (ioExecutorService == null && threadsCount > 1) {
+            ioExecutorService = virtualThreads ? createVirtualThreadExecutor()
+                    : Executors.newFixedThreadPool(ioThreadsCount, createThreadFactory("opoopress-io-%d"));
+        }
+        return ioExecutorService;
+    }
+
+    /**
+     * Shut down the executors after the build, running tasks are completed.
+     * The executors are created again if any task is executed later.
+     */
+    public synchronized void shutdown() {
+        if (executorService != null) {
+            executorService.shutdown();
+            executorService = null;
+        }
+        if (ioExecutorService != null) {
+            ioExecutorService.shutdown();
+            ioExecutorService = null;
+        }
+    }
+
     public void run(Runnable task) {
+        ExecutorService executorService = getExecutorService();
         if (executorService == null) {
             task.run();
             return;
@@ -73,6 +181,7 @@ public class TaskExecutor {
     }
 
     public <V> V call(Callable<V> task) throws Exception {
+        ExecutorService executorService = getExecutorService();
         if (executorService == null) {
             return task.call();
         }
@@ -82,6 +191,7 @@ public class TaskExecutor {
     }
 
     public <T> void run(Iterable<T> list, final RunnableTask<T> task) {
+        ExecutorService executorService = getExecutorService();
         if (executorService == null) {
             for (T t : list) {
                 task.run(t);
@@ -89,6 +199,90 @@ public class TaskExecutor {
             return;
         }
 
+        if (forkJoin) {
+            ForkJoinSupport.run(executorService, toList(list), task, threadsCount);
+            return;
+        }
+
+        run(executorService, list, task);
+    }
+
+    /**
+     * Run I/O bound task for each element of the list.
+     *
+     * @param list elements
+     * @param task the task
+     */
+    public <T> void runIO(Iterable<T> list, RunnableTask<T> task) {
+        ExecutorService ioExecutorService = getIOExecutorService();
+        if (ioExecutorService == null) {
+            for (T t : list) {
+                task.run(t);
+            }
+            return;
+        }
+
+        run(ioExecutorService, list, task);
+    }
+
+    /**
+     * Submit an I/O bound task without waiting for it, or run it immediately in single thread mode.
+     * Blocks while <code>io_queue_size</code> submitted tasks are pending.
+     *
+     * @param task the task
+     * @return future of the task, null if already executed
+     * @see #waitFor(List)
+     */
+    public Future<?> submitIO(final Runnable task) {
+        ExecutorService ioExecutorService = getIOExecutorService();
+        if (ioExecutorService == null) {
+            task.run();
+            return null;
+        }
+
+        final Semaphore permits = ioPermits;
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+        try {
+            return ioExecutorService.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run();
+                    } finally {
+                        permits.release();
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Wait for the submitted tasks completed.
+     *
+     * @param futures futures of the tasks, null elements are ignored
+     */
+    public void waitFor(List<Future<?>> futures) {
+        try {
+            for (Future<?> future : futures) {
+                if (future != null) {
+                    future.get();
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static <T> void run(ExecutorService executorService, Iterable<T> list, final RunnableTask<T> task) {
         int size = 0;
         CompletionService<Integer> cs = new ExecutorCompletionService<Integer>(executorService);
         for (final T input : list) {
@@ -113,6 +307,7 @@ public class TaskExecutor {
 
     public <T, V> List<V> call(Iterable<T> list, final CallableTask<T, V> task) {
         List<V> result = new ArrayList<V>();
+        ExecutorService executorService = getExecutorService();
         if (executorService == null) {
             for (T t : list) {
                 result.add(task.call(t));
@@ -153,6 +348,7 @@ public class TaskExecutor {
     }
 
     public void run(Iterable<Runnable> tasks) {
+        ExecutorService executorService = getExecutorService();
         if (executorService == null) {
             for (Runnable t : tasks) {
                 t.run();
@@ -160,6 +356,16 @@ public class TaskExecutor {
             return;
         }
 
+        if (forkJoin) {
+            ForkJoinSupport.run(executorService, toList(tasks), new RunnableTask<Runnable>() {
+                @Override
+                public void run(Runnable input) {
+                    input.run();
+                }
+            }, threadsCount);
+            return;
+        }
+
         int size = 0;
         CompletionService<Integer> cs = new ExecutorCompletionService<Integer>(executorService);
         for (final Runnable task : tasks) {
@@ -177,4 +383,69 @@ public class TaskExecutor {
             throw new RuntimeException(e);
         }
     }
+
+    private static <T> List<T> toList(Iterable<T> iterable) {
+        if (iterable instanceof List) {
+            return (List<T>) iterable;
+        }
+        List<T> list = new ArrayList<T>();
+        for (T t : iterable) {
+            list.add(t);
+        }
+        return list;
+    }
+
+    private static boolean isForkJoinSupported() {
+        try {
+            Class.forName("java.util.concurrent.ForkJoinPool");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Loaded only if fork/join is supported by the runtime.
+     */
+    private static class ForkJoinSupport {
+        static ExecutorService createPool(int threads) {
+            return new ForkJoinPool(threads);
+        }
+
+        static <T> void run(ExecutorService pool, List<T> list, RunnableTask<T> task, int threads) {
+            //several slices per thread, so that threads finished early can steal
+            int threshold = Math.max(1, list.size() / (threads * 8));
+            ((ForkJoinPool) pool).invoke(new ListAction<T>(list, 0, list.size(), task, threshold));
+        }
+    }
+
+    private static class ListAction<T> extends RecursiveAction {
+        private static final long serialVersionUID = 4178462375021532311L;
+        private final List<T> list;
+        private final int start;
+        private final int end;
+        private final RunnableTask<T> task;
+        private final int threshold;
+
+        ListAction(List<T> list, int start, int end, RunnableTask<T> task, int threshold) {
+            this.list = list;
+            this.start = start;
+            this.end = end;
+            this.task = task;
+            this.threshold = threshold;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= threshold) {
+                for (int i = start; i < end; i++) {
+                    task.run(list.get(i));
+                }
+                return;
+            }
+            int middle = (start + end) >>> 1;
+            invokeAll(new ListAction<T>(list, start, middle, task, threshold),
+                    new ListAction<T>(list, middle, end, task, threshold));
+        }
+    }
 }
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2013 Alex Lin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opoo.press.template;
+
+import freemarker.core.Environment;
+import freemarker.template.TemplateDirectiveBody;
+import freemarker.template.TemplateDirectiveModel;
+import freemarker.template.TemplateException;
+import freemarker.template.TemplateModel;
+import freemarker.template.TemplateModelException;
+import freemarker.template.TemplateNumberModel;
+import freemarker.template.TemplateScalarModel;
+import org.opoo.press.Config;
+import org.opoo.press.ConfigAware;
+import org.opoo.press.Named;
+import org.opoo.press.Page;
+import org.opoo.press.ProcessorAdapter;
+import org.opoo.press.Site;
+import org.opoo.press.build.DependencyRecorder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Renders the body once per build for each key, the output is reused by all
+ * other pages.
+ * <p>
+ * Usage:
+ * <pre>
+ * &lt;@cache key="sidebar"&gt;...&lt;/@cache&gt;
+ * &lt;@cache key="archives-" + page.collection.name&gt;...&lt;/@cache&gt;
+ * </pre>
+ * The body must render the same output for the same key on every page, i.e.
+ * it should not use any page variables which are not in the key. The pages read
+ * while rendering the body are recorded as dependencies of every page reusing it.
+ * A nested directive with a key of an enclosing one renders its body directly;
+ * inside a body, a fragment being rendered by another thread is not waited for,
+ * the body is rendered directly as well.
+ * <p>
+ * It is also a processor (registered by the renderer), the cached fragments
+ * are discarded before rendering, the hit/miss counters are logged after the
+ * pages written. Set <code>fragment_cache: false</code> to always render the body.
+ *
+ * @author Alex Lin
+ */
+public class FragmentCacheDirective extends ProcessorAdapter implements TemplateDirectiveModel, Named, ConfigAware {
+    private static final Logger log = LoggerFactory.getLogger(FragmentCacheDirective.class);
+
+    private final ConcurrentMap<String, FutureTask<Fragment>> fragments = new ConcurrentHashMap<String, FutureTask<Fragment>>();
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+    //keys of the fragments being rendered in this thread
+    private final ThreadLocal<Set<String>> renderingKeys = new ThreadLocal<Set<String>>() {
+        @Override
+        protected Set<String> initialValue() {
+            return new HashSet<String>();
+        }
+    };
+    private boolean enabled = true;
+
+    @Override
+    public String getName() {
+        return "cache";
+    }
+
+    @Override
+    public void setConfig(Config config) {
+        if (config != null) {
+            enabled = config.get("fragment_cache", true);
+        }
+    }
+
+    @Override
+    public void execute(final Environment env, @SuppressWarnings("rawtypes") Map params, TemplateModel[] loopVars,
+                        final TemplateDirectiveBody body) throws TemplateException, IOException {
+        if (loopVars.length > 0) {
+            throw new TemplateModelException("The 'cache' directive does not allow loop variables.");
+        }
+        final String key = getKey(params);
+        if (body == null) {
+            return;
+        }
+        if (!enabled) {
+            body.render(env.getOut());
+            return;
+        }
+
+        final Set<String> rendering = renderingKeys.get();
+        if (rendering.contains(key)) {
+            //nested in the fragment of the same key
+            body.render(env.getOut());
+            return;
+        }
+
+        FutureTask<Fragment> task = fragments.get(key);
+        boolean created = false;
+        if (task == null) {
+            FutureTask<Fragment> newTask = new FutureTask<Fragment>(new Callable<Fragment>() {
+                @Override
+                public Fragment call() throws Exception {
+                    StringWriter writer = new StringWriter();
+                    Set<Page> dependencies = DependencyRecorder.beginCapture();
+                    rendering.add(key);
+                    try {
+                        body.render(writer);
+                    } finally {
+                        rendering.remove(key);
+                        DependencyRecorder.endCapture(dependencies);
+                    }
+                    return new Fragment(writer.toString(), dependencies);
+                }
+            });
+            task = fragments.putIfAbsent(key, newTask);
+            if (task == null) {
+                task = newTask;
+                created = true;
+                misses.incrementAndGet();
+                //render in this thread with the environment of this page
+                task.run();
+            }
+        }
+
+        if (!created) {
+            if (!task.isDone() && !rendering.isEmpty()) {
+                //rendering by another thread, which may be waiting for a fragment of this thread
+                body.render(env.getOut());
+                return;
+            }
+            hits.incrementAndGet();
+        }
+
+        try {
+            Fragment fragment = task.get();
+            //the page reusing the fragment depends on the pages the fragment read
+            DependencyRecorder.recordAll(fragment.dependencies);
+            env.getOut().write(fragment.content);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TemplateModelException("Interrupted while waiting for fragment: " + key, e);
+        } catch (ExecutionException e) {
+            //let the next page try again
+            fragments.remove(key, task);
+            Throwable cause = e.getCause();
+            if (cause instanceof TemplateException) {
+                throw (TemplateException) cause;
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new TemplateModelException("Render fragment failed: " + key, (Exception) cause);
+        }
+    }
+
+    private String getKey(@SuppressWarnings("rawtypes") Map params) throws TemplateModelException {
+        Object key = params.get("key");
+        if (key instanceof TemplateScalarModel) {
+            return ((TemplateScalarModel) key).getAsString();
+        }
+        if (key instanceof TemplateNumberModel) {
+            return ((TemplateNumberModel) key).getAsNumber().toString();
+        }
+        throw new TemplateModelException("The 'cache' directive requires a string 'key' parameter.");
+    }
+
+    @Override
+    public void preRender(Site site) {
+        fragments.clear();
+        hits.set(0);
+        misses.set(0);
+    }
+
+    @Override
+    public void postWrite(Site site) {
+        if (hits.get() > 0 || misses.get() > 0) {
+            log.info("Fragment cache: {} hits, {} misses.", hits.get(), misses.get());
+        }
+        fragments.clear();
+    }
+
+    private static class Fragment {
+        private final String content;
+        private final Set<Page> dependencies;
+
+        private Fragment(String content, Set<Page> dependencies) {
+            this.content = content;
+            this.dependencies = dependencies != null ? dependencies : Collections.<Page>emptySet();
+        }
+    }
+}
@@ -24,13 +24,14 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author Alex Lin
  */
 public abstract class ClassUtils extends org.apache.commons.lang.ClassUtils {
-    private static Map<String, Class<?>> classMap = new HashMap<String, Class<?>>();
-    private static Map<String, ClassNotFoundException> classNotFoundExceptionMap = new HashMap<String, ClassNotFoundException>();
+    private static Map<String, Class<?>> classMap = new ConcurrentHashMap<String, Class<?>>();
+    private static Map<String, ClassNotFoundException> classNotFoundExceptionMap = new ConcurrentHashMap<String, ClassNotFoundException>();
     private static Map<String, Constructor> constructorMap = new HashMap<String, Constructor>();
     private static Map<String, NoSuchMethodException> noSuchMethodExceptionMap = new HashMap<String, NoSuchMethodException>();
 
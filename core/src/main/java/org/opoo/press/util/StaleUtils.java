@@ -17,6 +17,7 @@ package org.opoo.press.util;
 
 import org.apache.commons.io.IOUtils;
 import org.opoo.press.Site;
+import org.opoo.press.build.BuildManifest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -32,8 +33,11 @@ import java.io.ObjectOutput;
 import java.io.ObjectOutputStream;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * @author Alex Lin
@@ -46,24 +50,23 @@ public abstract class StaleUtils {
         return new File(site.getWorking(), ".lastBuildInfo");
     }
 
-    public static void saveLastBuildInfo(Site site) {
-        File file = getLastBuildInfoFile(site);
+    static File getBuildManifestFile(Site site) {
+        return new File(site.getWorking(), ".buildManifest");
+    }
 
-        File[] configFiles = site.getConfig().getConfigFiles();
-        BuildInfo info = new BuildInfo();
-        info.time = System.currentTimeMillis();
-        info.siteConfigFilesLength = configFiles.length;
+    /**
+     * Check the site files against the manifest of last build. The files are listed
+     * and checked once, the result is shared by all checks of a build.
+     *
+     * @param site the site
+     * @return the snapshot
+     */
+    public static Snapshot takeSnapshot(Site site) {
+        return new Snapshot(site);
+    }
 
-        ObjectOutputStream oos = null;
-        try {
-            oos = new ObjectOutputStream(new FileOutputStream(file));
-            oos.writeObject(info);
-            oos.flush();
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        } finally {
-            IOUtils.closeQuietly(oos);
-        }
+    public static void saveLastBuildInfo(Site site) {
+        takeSnapshot(site).save();
     }
 
     private static BuildInfo getLastBuildInfo(Site site) {
@@ -90,92 +93,67 @@ public abstract class StaleUtils {
     }
 
     public static boolean isStale(Site site, boolean checkAssets) {
-        BuildInfo info = getLastBuildInfo(site);
-        if (info == null || info.time <= 0) {
-            log.debug("No last build info.");
-            return true;
-        }
-
-        if (site.showDrafts() != info.showDrafts) {
-            log.info("Show drafts option changed: {} -> {}", info.showDrafts, site.showDrafts());
-            return true;
-        }
-
-        long lastBuildTime = info.time;
+        return takeSnapshot(site).isStale(checkAssets);
+    }
 
-        //theme config
-        if (site.getTheme().getConfigFile().lastModified() > lastBuildTime) {
-            log.info("Theme config file changed: {}", site.getTheme().getConfigFile());
-            return true;
-        }
+    /**
+     * Whether the site configuration, the theme configuration or the build options
+     * changed since last build. Changes of source, template and asset files are not checked.
+     *
+     * @param site the site
+     * @return true if config changed or the site never built
+     */
+    public static boolean isConfigStale(Site site) {
+        return takeSnapshot(site).isConfigStale();
+    }
 
-        //config
-        File[] configFiles = site.getConfig().getConfigFiles();
-        if (info.siteConfigFilesLength != configFiles.length) {
-            log.info("Site config files changed.");
-            return true;
-        }
-        for (File file : configFiles) {
-            if (file.lastModified() > lastBuildTime) {
-                log.info("Site config file changed: {}", file);
-                return true;
-            }
-        }
+    /**
+     * Lists files in the specified directories changed since last build,
+     * include new files and deleted files.
+     *
+     * @param site the site
+     * @param dirs directories
+     * @return the changed files, or null if the site never built
+     */
+    public static List<File> getChangedFiles(Site site, List<File> dirs) {
+        return takeSnapshot(site).getChangedFiles(dirs);
+    }
 
-        FileFilter filter = new ValidFileFilter();
+    public static List<File> getStaleAssets(Site site) {
+        return takeSnapshot(site).getStaleAssets();
+    }
 
-        //source file
-        List<File> sources = site.getSources();
-        for (File source : sources) {
-            if (isNewer(source, lastBuildTime, filter)) {
-                log.info("Source file changed.");
+    private static boolean isInDirectories(String path, List<File> dirs) {
+        for (File dir : dirs) {
+            if (path.startsWith(dir.getAbsolutePath() + File.separator)) {
                 return true;
             }
         }
-
-        //templates
-        File templates = site.getTemplates();
-        if (isNewer(templates, lastBuildTime, filter)) {
-            log.info("Template file changed.");
-            return true;
-        }
-
-        if (checkAssets) {
-            //assets
-            List<File> assets = site.getAssets();
-            if (assets != null && !assets.isEmpty()) {
-                for (File asset : assets) {
-                    if (isNewer(asset, lastBuildTime, filter)) {
-                        log.info("Asset file changed.");
-                        return true;
-                    }
-                }
-            }
-        }
-
         return false;
     }
 
-    public static List<File> getStaleAssets(Site site) {
-        BuildInfo info = getLastBuildInfo(site);
-        long lastBuildTime = info.time;
-        FileFilter filter = new ValidFileFilter();
-
+    private static List<File> listFiles(File dir, FileFilter filter) {
         List<File> list = new ArrayList<File>();
-        List<File> assets = site.getAssets();
-        if (assets != null && !assets.isEmpty()) {
-            for (File asset : assets) {
-                if (isNewer(asset, lastBuildTime, filter)) {
-                    list.add(asset);
-                }
-            }
-        }
-        if (list.isEmpty()) {
-            return null;
+        if (dir != null && dir.isDirectory()) {
+            listFiles(dir, filter, list);
         }
         return list;
     }
 
+    private static void listFiles(File dir, FileFilter filter, List<File> list) {
+        File[] listFiles = dir.listFiles(filter);
+        for (File file : listFiles) {
+            if (file.isHidden()) {
+                continue;
+            }
+            if (file.isFile()) {
+                list.add(file);
+            } else if (file.isDirectory()) {
+                listFiles(file, filter, list);
+            }
+        }
+    }
+
     public static boolean isNewer(File dir, long compareTime, FileFilter filter) {
         File[] listFiles = dir.listFiles(filter);
         for (File file : listFiles) {
@@ -201,6 +179,221 @@ public abstract class StaleUtils {
         return SDF.format(new Date(millis));
     }
 
+    /**
+     * Files of the site checked against the manifest of last build: theme and site
+     * config files, sources, templates and assets. The state of the files is
+     * recorded into a new manifest while checking, which is saved after the build,
+     * so touched but unchanged files are hashed once.
+     */
+    public static class Snapshot {
+        private final Site site;
+        private final BuildInfo info;
+        private final BuildManifest manifest;
+        private final BuildManifest current = new BuildManifest();
+        private final List<File> changedFiles = new ArrayList<File>();
+        private final boolean configStale;
+
+        private Snapshot(Site site) {
+            this.site = site;
+            this.info = getLastBuildInfo(site);
+            this.manifest = BuildManifest.load(getBuildManifestFile(site));
+            this.configStale = checkConfig();
+
+            FileFilter filter = new ValidFileFilter();
+            Set<String> paths = new HashSet<String>();
+            List<File> dirs = getDirectories();
+            for (File dir : dirs) {
+                for (File file : listFiles(dir, filter)) {
+                    paths.add(file.getAbsolutePath());
+                    if (manifest == null) {
+                        current.put(file, null);
+                    } else if (manifest.isChanged(file, current)) {
+                        log.info("File {} changed.", file);
+                        changedFiles.add(file);
+                    }
+                }
+            }
+
+            //deleted files
+            if (manifest != null) {
+                for (String path : manifest.getPaths()) {
+                    if (!paths.contains(path) && isInDirectories(path, dirs)) {
+                        log.info("File {} deleted.", path);
+                        changedFiles.add(new File(path));
+                    }
+                }
+            }
+        }
+
+        private List<File> getDirectories() {
+            List<File> dirs = new ArrayList<File>(site.getSources());
+            dirs.add(site.getTemplates());
+            if (site.getAssets() != null) {
+                dirs.addAll(site.getAssets());
+            }
+            return dirs;
+        }
+
+        private boolean isChanged(File file) {
+            if (manifest == null) {
+                current.put(file, null);
+                return true;
+            }
+            return manifest.isChanged(file, current);
+        }
+
+        private boolean checkConfig() {
+            //record all config files
+            boolean themeConfigChanged = isChanged(site.getTheme().getConfigFile());
+            File[] configFiles = site.getConfig().getConfigFiles();
+            File changedConfigFile = null;
+            for (File file : configFiles) {
+                if (isChanged(file) && changedConfigFile == null) {
+                    changedConfigFile = file;
+                }
+            }
+
+            if (info == null || info.time <= 0) {
+                log.debug("No last build info.");
+                return true;
+            }
+
+            if (manifest == null) {
+                log.debug("No build manifest.");
+                return true;
+            }
+
+            if (site.showDrafts() != info.showDrafts) {
+                log.info("Show drafts option changed: {} -> {}", info.showDrafts, site.showDrafts());
+                return true;
+            }
+
+            //theme config
+            if (themeConfigChanged) {
+                log.info("Theme config file changed: {}", site.getTheme().getConfigFile());
+                return true;
+            }
+
+            //config
+            if (info.siteConfigFilesLength != configFiles.length) {
+                log.info("Site config files changed.");
+                return true;
+            }
+            if (changedConfigFile != null) {
+                log.info("Site config file changed: {}", changedConfigFile);
+                return true;
+            }
+
+            return false;
+        }
+
+        /**
+         * @return true if config changed or the site never built
+         * @see StaleUtils#isConfigStale(Site)
+         */
+        public boolean isConfigStale() {
+            return configStale;
+        }
+
+        public boolean isStale(boolean checkAssets) {
+            if (configStale) {
+                return true;
+            }
+
+            //source file
+            if (!getChangedFiles(site.getSources()).isEmpty()) {
+                log.info("Source file changed.");
+                return true;
+            }
+
+            //templates
+            if (!getChangedFiles(Collections.singletonList(site.getTemplates())).isEmpty()) {
+                log.info("Template file changed.");
+                return true;
+            }
+
+            if (checkAssets) {
+                //assets
+                List<File> assets = site.getAssets();
+                if (assets != null && !getChangedFiles(assets).isEmpty()) {
+                    log.info("Asset file changed.");
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        /**
+         * @param dirs directories
+         * @return the changed files in the directories, or null if the site never built
+         * @see StaleUtils#getChangedFiles(Site, List)
+         */
+        public List<File> getChangedFiles(List<File> dirs) {
+            if (manifest == null) {
+                return null;
+            }
+            List<File> list = new ArrayList<File>();
+            for (File file : changedFiles) {
+                if (isInDirectories(file.getAbsolutePath(), dirs)) {
+                    list.add(file);
+                }
+            }
+            return list;
+        }
+
+        public List<File> getStaleAssets() {
+            List<File> list = new ArrayList<File>();
+            List<File> assets = site.getAssets();
+            if (manifest != null && assets != null && !assets.isEmpty()) {
+                for (File asset : assets) {
+                    List<File> changed = getChangedFiles(Collections.singletonList(asset));
+                    if (!changed.isEmpty()) {
+                        list.add(asset);
+                    }
+                }
+            }
+            if (list.isEmpty()) {
+                return null;
+            }
+            return list;
+        }
+
+        /**
+         * Save the build info and the state of the files checked by this snapshot.
+         */
+        public void save() {
+            File file = getLastBuildInfoFile(site);
+
+            BuildInfo info = new BuildInfo();
+            info.time = System.currentTimeMillis();
+            info.showDrafts = site.showDrafts();
+            info.siteConfigFilesLength = site.getConfig().getConfigFiles().length;
+
+            ObjectOutputStream oos = null;
+            try {
+                oos = new ObjectOutputStream(new FileOutputStream(file));
+                oos.writeObject(info);
+                oos.flush();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            } finally {
+                IOUtils.closeQuietly(oos);
+            }
+
+            saveManifest();
+        }
+
+        /**
+         * Save the state of the files only, e.g. the refreshed last modified time of
+         * touched files when nothing to build.
+         */
+        public void saveManifest() {
+            current.save(getBuildManifestFile(site));
+            log.debug("Build manifest saved: {} files.", current.size());
+        }
+    }
+
     private static class ValidFileFilter implements FileFilter {
         @Override
         public boolean accept(File file) {
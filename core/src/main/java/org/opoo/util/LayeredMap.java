@@ -0,0 +1,182 @@
+/*
+ * Copyright 2013 Alex Lin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opoo.util;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A map of a small overlay on a shared base map. Lookups check the overlay
+ * first, all modifications go to the overlay, the base map is never modified.
+ * A key removed is hidden by a <code>null</code> value in overlay, so null
+ * values are not supported. The entry set iterates a merged snapshot of both
+ * layers, removing an entry or setting its value writes to the overlay.
+ *
+ * @author Alex Lin
+ */
+public class LayeredMap<K, V> extends AbstractMap<K, V> {
+    private final Map<K, V> base;
+    private final Map<K, V> overlay = new HashMap<K, V>(8);
+
+    public LayeredMap(Map<K, V> base) {
+        this.base = base;
+    }
+
+    /**
+     * Create a layered map on the specified map. If the map is a layered map
+     * itself, the new map shares its base and starts with a copy of its overlay,
+     * so layers are never nested and the base stays shareable.
+     *
+     * @param map the map
+     * @param <K> key type
+     * @param <V> value type
+     * @return layered map
+     */
+    public static <K, V> LayeredMap<K, V> create(Map<K, V> map) {
+        if (!(map instanceof LayeredMap)) {
+            return new LayeredMap<K, V>(map);
+        }
+        LayeredMap<K, V> layered = (LayeredMap<K, V>) map;
+        LayeredMap<K, V> result = create(layered.base);
+        result.overlay.putAll(layered.overlay);
+        return result;
+    }
+
+    public Map<K, V> getBase() {
+        return base;
+    }
+
+    public Map<K, V> getOverlay() {
+        return overlay;
+    }
+
+    @Override
+    public V get(Object key) {
+        if (overlay.containsKey(key)) {
+            return overlay.get(key);
+        }
+        return base.get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        if (overlay.containsKey(key)) {
+            return overlay.get(key) != null;
+        }
+        return base.containsKey(key);
+    }
+
+    @Override
+    public V put(K key, V value) {
+        V old = get(key);
+        overlay.put(key, value);
+        return old;
+    }
+
+    @Override
+    public V remove(Object key) {
+        V old = get(key);
+        if (old != null) {
+            //the key is in this map
+            @SuppressWarnings("unchecked")
+            K k = (K) key;
+            overlay.put(k, null);
+        }
+        return old;
+    }
+
+    @Override
+    public void clear() {
+        overlay.clear();
+        for (K key : base.keySet()) {
+            overlay.put(key, null);
+        }
+    }
+
+    /**
+     * @return entries of both layers, iterated on a merged snapshot; modifications
+     * through the iterator and the entries are written to the overlay, other
+     * modifications of the set are not supported
+     */
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return new AbstractSet<Entry<K, V>>() {
+            @Override
+            public Iterator<Entry<K, V>> iterator() {
+                return new EntryIterator(merge().entrySet().iterator());
+            }
+
+            @Override
+            public int size() {
+                return merge().size();
+            }
+        };
+    }
+
+    private Map<K, V> merge() {
+        Map<K, V> merged = new LinkedHashMap<K, V>(base);
+        for (Entry<K, V> entry : overlay.entrySet()) {
+            if (entry.getValue() != null) {
+                merged.put(entry.getKey(), entry.getValue());
+            } else {
+                merged.remove(entry.getKey());
+            }
+        }
+        return merged;
+    }
+
+    private class EntryIterator implements Iterator<Entry<K, V>> {
+        private final Iterator<Entry<K, V>> iterator;
+        private Entry<K, V> current;
+
+        private EntryIterator(Iterator<Entry<K, V>> iterator) {
+            this.iterator = iterator;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return iterator.hasNext();
+        }
+
+        @Override
+        public Entry<K, V> next() {
+            current = iterator.next();
+            return new SimpleEntry<K, V>(current) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                public V setValue(V value) {
+                    put(getKey(), value);
+                    return super.setValue(value);
+                }
+            };
+        }
+
+        @Override
+        public void remove() {
+            if (current == null) {
+                throw new IllegalStateException();
+            }
+            LayeredMap.this.remove(current.getKey());
+            current = null;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2013 Alex Lin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opoo.press.build;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Alex Lin
+ */
+public class BuildManifestTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private File manifestFile;
+
+    @Before
+    public void setUp() throws IOException {
+        file = folder.newFile("a.md");
+        FileUtils.writeStringToFile(file, "content", "UTF-8");
+        file.setLastModified(1000000000000L);
+        manifestFile = new File(folder.getRoot(), ".manifest");
+    }
+
+    @Test
+    public void testUnchanged() {
+        save(record(null));
+        assertFalse(load().isChanged(file, null));
+    }
+
+    @Test
+    public void testContentChanged() throws IOException {
+        save(record(null));
+        FileUtils.writeStringToFile(file, "changed", "UTF-8");
+        assertTrue(load().isChanged(file, null));
+    }
+
+    @Test
+    public void testTouchedWithoutHashIsChanged() {
+        //first build: recorded without hash
+        save(record(null));
+        file.setLastModified(1000000005000L);
+        BuildManifest current = new BuildManifest();
+        assertTrue(load().isChanged(file, current));
+        save(current);
+
+        //hashed when it changed, touching it again is detected
+        file.setLastModified(1000000010000L);
+        assertFalse(load().isChanged(file, null));
+    }
+
+    @Test
+    public void testSaveAndLoad() {
+        BuildManifest manifest = record(null);
+        save(manifest);
+        BuildManifest loaded = load();
+        assertNotNull(loaded);
+        assertEquals(1, loaded.size());
+        assertTrue(loaded.contains(file.getAbsolutePath()));
+    }
+
+    private BuildManifest record(BuildManifest previous) {
+        BuildManifest manifest = new BuildManifest();
+        manifest.put(file, previous);
+        return manifest;
+    }
+
+    private void save(BuildManifest manifest) {
+        manifest.save(manifestFile);
+    }
+
+    private BuildManifest load() {
+        return BuildManifest.load(manifestFile);
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2013 Alex Lin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opoo.press.build;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opoo.press.FileOrigin;
+import org.opoo.press.Page;
+import org.opoo.press.Source;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Alex Lin
+ */
+public class DependencyGraphTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File dest;
+    private TemplateDependencies templateDependencies;
+    private Page post;
+    private Page about;
+    private Page index;
+    private List<Page> pages;
+
+    @Before
+    public void setUp() throws IOException {
+        dest = folder.newFolder("dest");
+        templateDependencies = new TemplateDependencies(folder.newFolder("templates"), null);
+        post = page("/2013/hello.html", "post", "hello.md");
+        about = page("/about.html", "page", "about.md");
+        index = page("/index.html", "page", "index.html");
+        pages = Arrays.asList(post, about, index);
+    }
+
+    @Test
+    public void testChangedPageRerendersDependentPage() {
+        //the index page lists the excerpt of the post
+        Map<String, Set<Page>> recorded = new HashMap<String, Set<Page>>();
+        recorded.put("/index.html", new LinkedHashSet<Page>(Collections.singletonList(post)));
+        DependencyGraph graph = DependencyGraph.create(pages, recorded, null);
+
+        IncrementalBuild build = graph.plan(pages, sources(post), Collections.<String>emptySet(),
+                templateDependencies, dest);
+
+        assertEquals(set(post, index), set(build.getRenderPages()));
+        assertEquals(set(post, index), set(build.getConvertPages()));
+    }
+
+    @Test
+    public void testDependenciesCarriedForward() {
+        Map<String, Set<Page>> recorded = new HashMap<String, Set<Page>>();
+        recorded.put("/index.html", new LinkedHashSet<Page>(Collections.singletonList(post)));
+        DependencyGraph first = DependencyGraph.create(pages, recorded, null);
+
+        //the index page is not rendered in the next build
+        DependencyGraph second = DependencyGraph.create(pages, new HashMap<String, Set<Page>>(), first);
+
+        IncrementalBuild build = second.plan(pages, sources(post), Collections.<String>emptySet(),
+                templateDependencies, dest);
+        assertEquals(set(post, index), set(build.getRenderPages()));
+    }
+
+    @Test
+    public void testMissingOutputRendered() {
+        DependencyGraph graph = DependencyGraph.create(pages, new HashMap<String, Set<Page>>(), null);
+        assertTrue(about.getOutputFile(dest).delete());
+
+        IncrementalBuild build = graph.plan(pages, Collections.<String>emptySet(), Collections.<String>emptySet(),
+                templateDependencies, dest);
+        assertEquals(Collections.singletonList(about), build.getRenderPages());
+    }
+
+    @Test
+    public void testNewPageRequiresFullBuild() throws IOException {
+        DependencyGraph graph = DependencyGraph.create(pages, new HashMap<String, Set<Page>>(), null);
+        List<Page> current = new ArrayList<Page>(pages);
+        current.add(page("/new.html", "page", "new.md"));
+
+        assertNull(graph.plan(current, Collections.<String>emptySet(), Collections.<String>emptySet(),
+                templateDependencies, dest));
+    }
+
+    private static Set<Page> set(Page... pages) {
+        return set(Arrays.asList(pages));
+    }
+
+    private static Set<Page> set(List<Page> pages) {
+        return new HashSet<Page>(pages);
+    }
+
+    private Set<String> sources(Page... changed) {
+        Set<String> set = new LinkedHashSet<String>();
+        for (Page page : changed) {
+            set.add(((FileOrigin) page.getSource().getOrigin()).getFile().getAbsolutePath());
+        }
+        return set;
+    }
+
+    private Page page(final String url, final String layout, String sourceName) throws IOException {
+        final Map<String, Object> meta = new HashMap<String, Object>();
+        meta.put("layout", layout);
+        final FileOrigin origin = proxy(FileOrigin.class, Collections.<String, Object>singletonMap("getFile",
+                new File(folder.getRoot(), sourceName)));
+        Map<String, Object> source = new HashMap<String, Object>();
+        source.put("getOrigin", origin);
+        source.put("getMeta", meta);
+
+        File output = new File(dest, url.substring(1));
+        output.getParentFile().mkdirs();
+        output.createNewFile();
+
+        Map<String, Object> values = new HashMap<String, Object>();
+        values.put("getUrl", url);
+        values.put("getLayout", layout);
+        values.put("getSource", proxy(Source.class, source));
+        values.put("getOutputFile", output);
+        return proxy(Page.class, values);
+    }
+
+    /**
+     * @return an instance returns the value of the method name, identity equality
+     */
+    private static <T> T proxy(Class<T> type, final Map<String, Object> values) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class[]{type}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if ("equals".equals(method.getName())) {
+                    return proxy == args[0];
+                }
+                if ("hashCode".equals(method.getName())) {
+                    return System.identityHashCode(proxy);
+                }
+                if ("toString".equals(method.getName())) {
+                    return String.valueOf(values.get("getUrl"));
+                }
+                return values.get(method.getName());
+            }
+        }));
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2013 Alex Lin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opoo.press.build;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opoo.press.Site;
+
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author Alex Lin
+ */
+public class OutputFileListTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Site site;
+    private File dest;
+
+    @Before
+    public void setUp() {
+        final File working = folder.newFolder("working");
+        dest = folder.newFolder("dest");
+        site = (Site) Proxy.newProxyInstance(Site.class.getClassLoader(), new Class[]{Site.class},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        return "getWorking".equals(method.getName()) ? working : null;
+                    }
+                });
+    }
+
+    @Test
+    public void testNotSaved() {
+        assertNull(OutputFileList.load(site, dest));
+    }
+
+    @Test
+    public void testRoundTrip() {
+        File a = new File(dest, "a.html");
+        File b = new File(dest, "posts/b.html");
+        OutputFileList.save(site, dest, Arrays.asList(a, b));
+        assertEquals(new HashSet<File>(Arrays.asList(a, b)), OutputFileList.load(site, dest));
+    }
+
+    @Test
+    public void testDestinationChanged() {
+        OutputFileList.save(site, dest, Arrays.asList(new File(dest, "a.html")));
+        assertNull(OutputFileList.load(site, folder.newFolder("other")));
+    }
+
+    @Test
+    public void testPathsOutsideDestinationIgnored() throws Exception {
+        File inside = new File(dest, "a.html");
+        File sibling = new File(dest.getAbsolutePath() + "2", "b.html");
+        FileUtils.writeLines(new File(site.getWorking(), ".outputFiles"), "UTF-8", Arrays.asList(
+                dest.getAbsolutePath(), inside.getAbsolutePath(), sibling.getAbsolutePath(), "/etc/passwd"), "\n");
+        assertEquals(new HashSet<File>(Arrays.asList(inside)), OutputFileList.load(site, dest));
+    }
+}
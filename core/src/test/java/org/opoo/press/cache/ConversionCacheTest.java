@@ -0,0 +1,183 @@
+/*
+ * Copyright 2013 Alex Lin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opoo.press.cache;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opoo.press.Converter;
+import org.opoo.press.Factory;
+import org.opoo.press.Site;
+import org.opoo.press.SiteConfig;
+import org.opoo.press.Source;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Alex Lin
+ */
+public class ConversionCacheTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Site site;
+    private CountingConverter converter;
+
+    @Before
+    public void setUp() {
+        final Map<String, Object> config = new HashMap<String, Object>();
+        config.put("conversion_cache_max_age", 1);
+        final Map<String, Object> values = new HashMap<String, Object>();
+        values.put("getWorking", folder.getRoot());
+        values.put("getConfig", proxy(SiteConfig.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                //get(name) or get(name, defaultValue)
+                Object value = config.get(args[0]);
+                return value == null && args.length == 2 ? args[1] : value;
+            }
+        }));
+        values.put("getFactory", proxy(Factory.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                return null;
+            }
+        }));
+        site = proxy(Site.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                return values.get(method.getName());
+            }
+        });
+        converter = new CountingConverter();
+    }
+
+    @Test
+    public void testReuseAcrossBuilds() {
+        ConversionCache cache = ConversionCache.open(site);
+        assertEquals("<p>a</p>", cache.convert(converter, "a"));
+        cache.close();
+
+        cache = ConversionCache.open(site);
+        assertEquals("<p>a</p>", cache.convert(converter, "a"));
+        assertEquals(1, cache.getHitCount());
+        cache.close();
+        assertEquals(1, converter.count);
+    }
+
+    @Test
+    public void testReopenAfterCompaction() {
+        ConversionCache cache = ConversionCache.open(site);
+        for (int i = 0; i < 10; i++) {
+            cache.convert(converter, "content " + i);
+        }
+        cache.close();
+        File first = dataFile();
+
+        //7 entries expire: more than half of the data file is garbage
+        cache = ConversionCache.open(site);
+        for (int i = 0; i < 3; i++) {
+            cache.convert(converter, "content " + i);
+        }
+        cache.close();
+        //a new generation is written, the previous one deleted after the index saved
+        assertFalse(first.equals(dataFile()));
+        assertFalse(first.exists());
+
+        cache = ConversionCache.open(site);
+        for (int i = 0; i < 3; i++) {
+            assertEquals("<p>content " + i + "</p>", cache.convert(converter, "content " + i));
+        }
+        assertEquals(3, cache.getHitCount());
+        cache.close();
+        assertEquals(10, converter.count);
+    }
+
+    @Test
+    public void testCorruptedEntryConvertedAgain() throws Exception {
+        ConversionCache cache = ConversionCache.open(site);
+        cache.convert(converter, "a");
+        cache.convert(converter, "b");
+        cache.close();
+
+        RandomAccessFile raf = new RandomAccessFile(dataFile(), "rw");
+        try {
+            raf.seek(1);
+            raf.write('X');
+        } finally {
+            raf.close();
+        }
+
+        cache = ConversionCache.open(site);
+        assertEquals("<p>a</p>", cache.convert(converter, "a"));
+        assertEquals("<p>b</p>", cache.convert(converter, "b"));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        cache.close();
+    }
+
+    private File dataFile() {
+        File[] files = new File(folder.getRoot(), ".conversionCache").listFiles();
+        File data = null;
+        for (File file : files) {
+            if (file.getName().startsWith("data")) {
+                assertTrue("Only one data file expected", data == null);
+                data = file;
+            }
+        }
+        return data;
+    }
+
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class[]{type}, handler));
+    }
+
+    private static class CountingConverter implements Converter {
+        private int count;
+
+        @Override
+        public String convert(String content) {
+            count++;
+            return "<p>" + content + "</p>";
+        }
+
+        @Override
+        public boolean matches(Source src) {
+            return true;
+        }
+
+        @Override
+        public String getOutputFileExtension(Source src) {
+            return ".html";
+        }
+
+        @Override
+        public int getOrder() {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2013 Alex Lin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opoo.press.cache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Alex Lin
+ */
+public class PageContentCacheTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ContentStore store;
+
+    @Before
+    public void setUp() {
+        store = ContentStore.open(new File(folder.getRoot(), "content"), ContentStore.DEFAULT_SEGMENT_SIZE);
+    }
+
+    @After
+    public void tearDown() {
+        store.close();
+    }
+
+    @Test
+    public void testEvictedContentReadFromStore() {
+        PageContentCache cache = new PageContentCache(store, PageContentCache.DEFAULT_MAX_WEIGHT);
+        PageContentCache.Slot slot = cache.newSlot();
+        slot.set("written page");
+        assertEquals(0, store.size());
+
+        slot.evict();
+        assertEquals("written page".length(), store.size());
+        assertEquals("written page", slot.get());
+    }
+
+    @Test
+    public void testSpilledOverWeight() {
+        PageContentCache cache = new PageContentCache(store, 64);
+        PageContentCache.Slot first = cache.newSlot();
+        PageContentCache.Slot second = cache.newSlot();
+        first.set("0123456789012345678901234567890");
+        second.set("0123456789012345678901234567890");
+        assertTrue(store.size() > 0);
+        assertEquals("0123456789012345678901234567890", first.get());
+        assertEquals("0123456789012345678901234567890", second.get());
+    }
+
+    @Test
+    public void testEvictEmptySlot() {
+        PageContentCache.Slot slot = new PageContentCache(store, 64).newSlot();
+        slot.evict();
+        assertNull(slot.get());
+        assertEquals(0, store.size());
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2013 Alex Lin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opoo.press.collection;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opoo.press.Collection;
+import org.opoo.press.Page;
+import org.opoo.press.Site;
+import org.opoo.press.SiteConfig;
+import org.opoo.press.collection.filter.LayoutFilter;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Alex Lin
+ */
+public class CollectionProcessorTest {
+    private static int evenFilterCalls;
+
+    private final List<Page> pages = new ArrayList<Page>();
+    private final Map<String, Collection> collections = new HashMap<String, Collection>();
+    private final Map<String, Object> config = new HashMap<String, Object>();
+
+    @Before
+    public void setUp() {
+        evenFilterCalls = 0;
+        for (int i = 0; i < 1000; i++) {
+            pages.add(page("/p" + i + ".html", i % 3 == 0 ? "article" : "page"));
+        }
+
+        Map<String, Object> collectionsConfig = new LinkedHashMap<String, Object>();
+        collectionsConfig.put("articles", Collections.singletonMap("filter",
+                filter(LayoutFilter.class, Arrays.asList("article"))));
+        collectionsConfig.put("others", Collections.singletonMap("filter",
+                filter(LayoutFilter.class, Arrays.asList("page"))));
+        collectionsConfig.put("even", Collections.singletonMap("filter", filter(EvenFilter.class, null)));
+        config.put("collections", collectionsConfig);
+    }
+
+    @Test
+    public void testPagesRoutedInPageOrder() {
+        new CollectionProcessor().postRead(site());
+
+        List<Page> articles = new ArrayList<Page>();
+        List<Page> others = new ArrayList<Page>();
+        List<Page> even = new ArrayList<Page>();
+        for (int i = 0; i < pages.size(); i++) {
+            Page page = pages.get(i);
+            (i % 3 == 0 ? articles : others).add(page);
+            if (i % 2 == 0) {
+                even.add(page);
+            }
+        }
+        assertEquals(articles, collections.get("articles").getPages());
+        assertEquals(others, collections.get("others").getPages());
+        //a page can be in more than one collection
+        assertEquals(even, collections.get("even").getPages());
+        //each page is filtered once
+        assertEquals(pages.size(), evenFilterCalls);
+    }
+
+    @Test
+    public void testNoPages() {
+        pages.clear();
+        new CollectionProcessor().postRead(site());
+        assertEquals(3, collections.size());
+        assertEquals(0, collections.get("articles").getPages().size());
+    }
+
+    /**
+     * A filter of plugin, applied serially.
+     */
+    public static class EvenFilter implements Filter {
+        @Override
+        public boolean apply(Page input) {
+            evenFilterCalls++;
+            String url = input.getUrl();
+            return Integer.parseInt(url.substring(2, url.indexOf('.'))) % 2 == 0;
+        }
+    }
+
+    private static Map<String, Object> filter(Class<? extends Filter> type, List<?> args) {
+        Map<String, Object> filter = new HashMap<String, Object>();
+        filter.put("type", type.getName());
+        if (args != null) {
+            filter.put("args", args);
+        }
+        return filter;
+    }
+
+    private Site site() {
+        final SiteConfig siteConfig = proxy(SiteConfig.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                return "get".equals(method.getName()) ? config.get(args[0]) : null;
+            }
+        });
+        final Object factory = proxy(org.opoo.press.Factory.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                return null;
+            }
+        });
+        return proxy(Site.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                String name = method.getName();
+                if ("getConfig".equals(name)) {
+                    return siteConfig;
+                }
+                if ("getAllPages".equals(name)) {
+                    return pages;
+                }
+                if ("getCollections".equals(name)) {
+                    return collections;
+                }
+                if ("getFactory".equals(name)) {
+                    return factory;
+                }
+                if ("getClassLoader".equals(name)) {
+                    return CollectionProcessorTest.class.getClassLoader();
+                }
+                return null;
+            }
+        });
+    }
+
+    private static Page page(final String url, final String layout) {
+        return proxy(Page.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                String name = method.getName();
+                if ("equals".equals(name)) {
+                    return proxy == args[0];
+                }
+                if ("hashCode".equals(name)) {
+                    return System.identityHashCode(proxy);
+                }
+                if ("getUrl".equals(name) || "toString".equals(name)) {
+                    return url;
+                }
+                return "getLayout".equals(name) ? layout : null;
+            }
+        });
+    }
+
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class[]{type}, handler));
+    }
+}
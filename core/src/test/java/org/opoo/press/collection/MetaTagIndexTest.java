@@ -0,0 +1,110 @@
+/*
+ * Copyright 2013 Alex Lin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opoo.press.collection;
+
+import org.junit.Test;
+import org.opoo.press.Page;
+import org.opoo.press.Tag;
+import org.opoo.press.impl.TagImpl;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Alex Lin
+ */
+public class MetaTagIndexTest {
+
+    @Test
+    public void testResolvedAsScan() {
+        Tag java = new TagImpl("java", "Java");
+        //name of this tag is the slug of the first one
+        Tag other = new TagImpl("other", "java");
+        Tag go = new TagImpl("go", "Go");
+        List<Tag> tags = new ArrayList<Tag>(Arrays.asList(java, other, go));
+        MetaTagIndex<Tag> index = new MetaTagIndex<Tag>(tags);
+
+        for (String nameOrSlug : Arrays.asList("java", "Java", "other", "go", "Go", "none")) {
+            assertSame(nameOrSlug, scan(tags, nameOrSlug), index.get(nameOrSlug));
+        }
+    }
+
+    @Test
+    public void testAddTag() {
+        List<Tag> tags = new ArrayList<Tag>();
+        MetaTagIndex<Tag> index = new MetaTagIndex<Tag>(tags);
+        assertNull(index.get("java"));
+
+        Tag java = new TagImpl("java", "Java");
+        index.add(java);
+        assertEquals(Arrays.asList(java), tags);
+        assertSame(java, index.get("java"));
+        assertSame(java, index.get("Java"));
+
+        //not replaced by a later tag
+        index.add(new TagImpl("java", "Java 8"));
+        assertSame(java, index.get("java"));
+    }
+
+    @Test
+    public void testAddPageOnce() {
+        Tag java = new TagImpl("java", "Java");
+        Page first = page("first");
+        java.getPages().add(first);
+        MetaTagIndex<Tag> index = new MetaTagIndex<Tag>(new ArrayList<Tag>(Arrays.asList(java)));
+
+        Page second = page("second");
+        assertFalse(index.addPage(java, first));
+        assertTrue(index.addPage(java, second));
+        assertFalse(index.addPage(java, second));
+        assertEquals(Arrays.asList(first, second), java.getPages());
+    }
+
+    private static Tag scan(List<Tag> tags, String nameOrSlug) {
+        for (Tag tag : tags) {
+            if (tag.isNameOrSlug(nameOrSlug)) {
+                return tag;
+            }
+        }
+        return null;
+    }
+
+    private static Page page(final String name) {
+        return (Page) Proxy.newProxyInstance(Page.class.getClassLoader(), new Class[]{Page.class},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if ("equals".equals(method.getName())) {
+                            return proxy == args[0];
+                        }
+                        if ("hashCode".equals(method.getName())) {
+                            return System.identityHashCode(proxy);
+                        }
+                        return "toString".equals(method.getName()) ? name : null;
+                    }
+                });
+    }
+}
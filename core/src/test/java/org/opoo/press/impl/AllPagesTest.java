@@ -0,0 +1,96 @@
+/*
+ * Copyright 2013 Alex Lin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opoo.press.impl;
+
+import org.junit.Test;
+import org.opoo.press.Page;
+import org.opoo.press.Site;
+import org.opoo.press.Source;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Alex Lin
+ */
+public class AllPagesTest {
+    private static final String KEY = "template";
+
+    @Test
+    public void testFrontMatter() {
+        SimplePage a = page("a", true);
+        SimplePage b = page("b", false);
+        SiteImpl.AllPages pages = new SiteImpl.AllPages().addPage(a).addPage(b);
+
+        assertEquals(Arrays.<Page>asList(a), pages.getPagesByMetaKey(KEY));
+        assertTrue(pages.getPagesByMetaKey("none").isEmpty());
+    }
+
+    @Test
+    public void testSetBeforeAdded() {
+        SimplePage a = page("a", false);
+        SimplePage b = page("b", true);
+        a.set(KEY, "tags");
+        SiteImpl.AllPages pages = new SiteImpl.AllPages().addPage(a).addPage(b);
+
+        assertEquals(Arrays.<Page>asList(a, b), pages.getPagesByMetaKey(KEY));
+    }
+
+    @Test
+    public void testSetAfterIndexed() {
+        SimplePage a = page("a", false);
+        SimplePage b = page("b", true);
+        SimplePage c = page("c", true);
+        SiteImpl.AllPages pages = new SiteImpl.AllPages().addPage(a).addPage(b).addPage(c);
+        assertEquals(Arrays.<Page>asList(b, c), pages.getPagesByMetaKey(KEY));
+
+        //as notified by the page of a SiteImpl
+        a.set(KEY, "tags");
+        pages.addPageWithData(a);
+        c.set("other", "value");
+        pages.addPageWithData(c);
+        assertEquals(Arrays.<Page>asList(a, b, c), pages.getPagesByMetaKey(KEY));
+        assertEquals(Arrays.<Page>asList(c), pages.getPagesByMetaKey("other"));
+    }
+
+    private static SimplePage page(String name, boolean frontMatter) {
+        final Map<String, Object> meta = new HashMap<String, Object>();
+        meta.put("title", name);
+        if (frontMatter) {
+            meta.put(KEY, "tags");
+        }
+        SimplePage page = new SimplePage(proxy(Site.class, Collections.<String, Object>emptyMap()));
+        page.setSource(proxy(Source.class, Collections.<String, Object>singletonMap("getMeta", meta)));
+        return page;
+    }
+
+    private static <T> T proxy(Class<T> type, final Map<String, Object> values) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class[]{type}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                return values.get(method.getName());
+            }
+        }));
+    }
+}
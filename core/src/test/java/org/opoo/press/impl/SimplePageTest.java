@@ -0,0 +1,87 @@
+/*
+ * Copyright 2013 Alex Lin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opoo.press.impl;
+
+import org.junit.Test;
+import org.opoo.press.MetaTag;
+import org.opoo.press.Site;
+import org.opoo.press.Source;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * @author Alex Lin
+ */
+public class SimplePageTest {
+
+    @Test
+    public void testMetaTagKeepsDataShared() throws Exception {
+        Site site = proxy(Site.class, Collections.<String, Object>emptyMap());
+        SimplePage templatePage = new SimplePage(site);
+        templatePage.setSource(proxy(Source.class,
+                Collections.<String, Object>singletonMap("getMeta", new HashMap<String, Object>())));
+        templatePage.set("paginate", 10);
+
+        MetaTag tag = proxy(MetaTag.class, Collections.<String, Object>singletonMap("getName", "Java"));
+        SimplePage tagPage = new SimplePage(site, templatePage, null);
+        tagPage.setMetaTag(tag);
+        //paginated copy of the tag page
+        SimplePage copy = new SimplePage(site, tagPage, null);
+
+        assertSame(tag, tagPage.get("metaTag"));
+        assertSame(tag, copy.get("metaTag"));
+        assertSame(tag, copy.getMetaTag());
+        assertNull(templatePage.get("metaTag"));
+        assertEquals(10, copy.<Integer>get("paginate").intValue());
+
+        assertSame(data(templatePage), data(tagPage));
+        assertSame(data(templatePage), data(copy));
+    }
+
+    @Test
+    public void testDataOverridesMetaTag() {
+        Site site = proxy(Site.class, Collections.<String, Object>emptyMap());
+        SimplePage page = new SimplePage(site);
+        page.setMetaTag(proxy(MetaTag.class, Collections.<String, Object>emptyMap()));
+        page.set("metaTag", "custom");
+        assertEquals("custom", page.get("metaTag"));
+    }
+
+    private static Object data(SimplePage page) throws Exception {
+        Field field = SimplePage.class.getDeclaredField("data");
+        field.setAccessible(true);
+        return field.get(page);
+    }
+
+    private static <T> T proxy(Class<T> type, final Map<String, Object> values) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class[]{type}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                return values.get(method.getName());
+            }
+        }));
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2013 Alex Lin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opoo.press.pagination;
+
+import org.junit.Test;
+import org.opoo.press.Factory;
+import org.opoo.press.Page;
+import org.opoo.press.Site;
+import org.opoo.press.impl.SimplePage;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * @author Alex Lin
+ */
+public class PaginatedPageTest {
+    private static final List<String> ITEMS = Arrays.asList("a", "b", "c", "d", "e");
+
+    private final Site site = site();
+
+    @Test
+    public void testDirectoryUrl() {
+        SimplePage page = page("/blog/", "Blog");
+        List<Page> pages = PaginationUtils.paginate(site, page, ITEMS, 2);
+
+        assertEquals(2, pages.size());
+        assertEquals("/blog/", page.getUrl());
+        assertNull(page.get("title_suffix"));
+        assertEquals("/blog/page/2/", pages.get(0).getUrl());
+        assertEquals(" - Part 2", pages.get(0).get("title_suffix"));
+        assertEquals("/blog/page/3/", pages.get(1).getUrl());
+        assertEquals(" - Part 3", pages.get(1).get("title_suffix"));
+    }
+
+    @Test
+    public void testFileUrl() {
+        List<Page> pages = PaginationUtils.paginate(site, page("/archives/index.html", null), ITEMS, 2);
+        assertEquals("/archives/index-p2.html", pages.get(0).getUrl());
+        assertEquals(" - Page 2", pages.get(0).get("title_suffix"));
+    }
+
+    @Test
+    public void testChangedByPlugin() {
+        SimplePage page = page("/blog/", "Blog");
+        List<Page> pages = PaginationUtils.paginate(site, page, ITEMS, 2);
+
+        //a plugin changes the paginated page before it is read
+        Page second = pages.get(1);
+        second.setUrl("/blog/last/");
+        second.set("title_suffix", " - Last");
+        assertEquals("/blog/last/", second.getUrl());
+        assertEquals("/blog/last/", second.getDecodedUrl());
+        assertEquals(" - Last", second.get("title_suffix"));
+        assertSame(second, pages.get(0).getPager().getNext());
+    }
+
+    private SimplePage page(String url, String title) {
+        SimplePage page = new SimplePage(site);
+        page.setUrl(url);
+        page.setTitle(title);
+        page.setContent("content");
+        return page;
+    }
+
+    /**
+     * @return a site with the default pagination updater only
+     */
+    private static Site site() {
+        final Factory factory = proxy(Factory.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                return "getPaginationUpdater".equals(method.getName()) ? new DefaultPaginationUpdater() : null;
+            }
+        });
+        return proxy(Site.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                return "getFactory".equals(method.getName()) ? factory : null;
+            }
+        });
+    }
+
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class[]{type}, handler));
+    }
+}
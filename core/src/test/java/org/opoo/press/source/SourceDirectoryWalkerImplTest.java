@@ -0,0 +1,156 @@
+/*
+ * Copyright 2013 Alex Lin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opoo.press.source;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opoo.press.Site;
+import org.opoo.press.SiteConfig;
+import org.opoo.press.Source;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Alex Lin
+ */
+public class SourceDirectoryWalkerImplTest {
+    private static final String BOM = "\uFEFF";
+    private static final String EOL = IOUtils.LINE_SEPARATOR;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testParseCrlfWithBom() throws Exception {
+        String body = "First line\r\n---\r\nAfter a dashed line\r\n";
+        String text = BOM + "---\r\ntitle: Hello\r\nlayout: post\r\n---\r\n" + body;
+        for (boolean lazy : new boolean[]{false, true}) {
+            Source source = parse(text, lazy);
+            assertEquals("Hello", source.getMeta().get("title"));
+            assertEquals("post", source.getMeta().get("layout"));
+            //lines end with the system line separator, dashed lines are dropped
+            assertEquals("First line" + EOL + "After a dashed line" + EOL, source.getContent().toString());
+            assertFalse(((TemplateAwareSource) source).hasTemplateSyntax());
+        }
+    }
+
+    @Test
+    public void testParseBodyDashedLines() throws Exception {
+        String body = "---\nnot: front matter\n---\nlast line";
+        String text = "---\ntitle: Dashes\n---\n" + body;
+        for (boolean lazy : new boolean[]{false, true}) {
+            Source source = parse(text, lazy);
+            assertEquals(1, source.getMeta().size());
+            assertEquals("Dashes", source.getMeta().get("title"));
+            assertEquals("not: front matter" + EOL + "last line" + EOL, source.getContent().toString());
+        }
+    }
+
+    @Test
+    public void testParseEmptyBody() throws Exception {
+        for (boolean lazy : new boolean[]{false, true}) {
+            Source source = parse("---\ntitle: Empty\n---", lazy);
+            assertEquals("Empty", source.getMeta().get("title"));
+            assertEquals("", source.getContent().toString());
+        }
+    }
+
+    @Test
+    public void testTemplateSyntaxBeyondHead() throws Exception {
+        StringBuilder body = new StringBuilder();
+        while (body.length() < 20000) {
+            body.append("Plain text line.\n");
+        }
+        String plain = "---\ntitle: Large\n---\n" + body;
+        String template = plain + "${site.title}\n";
+        for (boolean lazy : new boolean[]{false, true}) {
+            Source source = parse(plain, lazy);
+            assertFalse(((TemplateAwareSource) source).hasTemplateSyntax());
+            assertEquals(body.toString().replace("\n", EOL), source.getContent().toString());
+
+            source = parse(template, lazy);
+            assertTrue(((TemplateAwareSource) source).hasTemplateSyntax());
+            assertEquals((body + "${site.title}\n").replace("\n", EOL), source.getContent().toString());
+        }
+    }
+
+    @Test
+    public void testLazyContentOfChangedFile() throws Exception {
+        Source source = parse("---\ntitle: Changed\n---\nFirst line\nSecond line\n", true);
+        File file = ((FileOriginImpl) source.getOrigin()).getFile();
+        FileUtils.writeStringToFile(file, "---\ntitle: Changed\n---\nFirst line\n", "UTF-8");
+        try {
+            source.getContent();
+            fail("Content of a truncated file");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().contains(file.getPath()));
+        }
+    }
+
+    @Test(expected = NoFrontMatterException.class)
+    public void testNoFrontMatter() throws Exception {
+        parse("title: none\n---\ncontent", false);
+    }
+
+    private Source parse(String text, boolean lazy) throws IOException, NoFrontMatterException {
+        File file = folder.newFile("source-" + System.nanoTime() + ".md");
+        FileUtils.writeStringToFile(file, text, "UTF-8");
+
+        SourceDirectoryWalkerImpl walker = new SourceDirectoryWalkerImpl();
+        walker.setSite(site(lazy));
+        return walker.parse(new FileOriginImpl(file, folder.getRoot()));
+    }
+
+    /**
+     * @return a site with the <code>lazy_source</code> option only
+     */
+    private static Site site(boolean lazy) {
+        final Map<String, Object> values = new HashMap<String, Object>();
+        values.put("lazy_source", lazy);
+        final SiteConfig config = proxy(SiteConfig.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                //get(name, defaultValue)
+                Object value = values.get(args[0]);
+                return value != null ? value : args[1];
+            }
+        });
+        return proxy(Site.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                return "getConfig".equals(method.getName()) ? config : null;
+            }
+        });
+    }
+
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class[]{type}, handler));
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2013 Alex Lin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opoo.press.template;
+
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Alex Lin
+ */
+public class FragmentCacheDirectiveTest {
+    private Configuration configuration;
+
+    @Before
+    public void setUp() {
+        configuration = new Configuration();
+        configuration.setSharedVariable("cache", new FragmentCacheDirective());
+    }
+
+    @Test
+    public void testRenderedOncePerKey() throws Exception {
+        Map<String, Object> model = new HashMap<String, Object>();
+        model.put("n", 1);
+        String template = "<@cache key=\"a\">${n}</@cache>";
+        assertEquals("1", render(template, model));
+
+        model.put("n", 2);
+        assertEquals("1", render(template, model));
+    }
+
+    @Test(timeout = 5000)
+    public void testNestedSameKey() throws Exception {
+        String template = "<@cache key=\"a\">x<@cache key=\"a\">y</@cache></@cache>";
+        assertEquals("xy", render(template, new HashMap<String, Object>()));
+        assertEquals("xy", render(template, new HashMap<String, Object>()));
+    }
+
+    private String render(String template, Map<String, Object> model) throws Exception {
+        StringWriter out = new StringWriter();
+        new Template("test", new StringReader(template), configuration).process(model, out);
+        return out.toString();
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2013 Alex Lin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opoo.util;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Alex Lin
+ */
+public class LayeredMapTest {
+    private Map<String, Object> base;
+
+    @Before
+    public void setUp() {
+        base = new HashMap<String, Object>();
+        base.put("a", 1);
+        base.put("b", 2);
+    }
+
+    @Test
+    public void testPutOverridesBase() {
+        LayeredMap<String, Object> map = new LayeredMap<String, Object>(base);
+        assertEquals(1, map.put("a", 10));
+        map.put("c", 3);
+
+        assertEquals(10, map.get("a"));
+        assertEquals(3, map.get("c"));
+        assertEquals(3, map.size());
+        assertEquals(1, base.get("a"));
+        assertFalse(base.containsKey("c"));
+    }
+
+    @Test
+    public void testRemoveHidesBaseKey() {
+        LayeredMap<String, Object> map = new LayeredMap<String, Object>(base);
+        assertEquals(2, map.remove("b"));
+        assertNull(map.remove("b"));
+        assertNull(map.remove("x"));
+
+        assertNull(map.get("b"));
+        assertFalse(map.containsKey("b"));
+        assertFalse(map.keySet().contains("b"));
+        assertEquals(1, map.size());
+        assertEquals(2, base.get("b"));
+
+        map.put("b", 20);
+        assertEquals(20, map.get("b"));
+        assertTrue(map.containsKey("b"));
+    }
+
+    @Test
+    public void testClearHidesAllBaseKeys() {
+        LayeredMap<String, Object> map = new LayeredMap<String, Object>(base);
+        map.put("c", 3);
+        map.clear();
+
+        assertTrue(map.isEmpty());
+        assertFalse(map.containsKey("a"));
+        assertNull(map.get("c"));
+        assertEquals(2, base.size());
+
+        map.put("a", 100);
+        assertEquals(1, map.size());
+        assertEquals(100, map.get("a"));
+    }
+
+    @Test
+    public void testCreateDoesNotNestLayers() {
+        LayeredMap<String, Object> page = LayeredMap.create(base);
+        page.put("page", "p");
+        page.remove("b");
+
+        LayeredMap<String, Object> excerpt = LayeredMap.create(page);
+        excerpt.put("a", 9);
+
+        assertSame(base, excerpt.getBase());
+        assertEquals(9, excerpt.get("a"));
+        assertEquals("p", excerpt.get("page"));
+        assertFalse(excerpt.containsKey("b"));
+
+        //layers are independent
+        assertEquals(1, page.get("a"));
+        assertEquals(1, base.get("a"));
+    }
+
+    @Test
+    public void testWriteThroughEntrySet() {
+        LayeredMap<String, Object> map = new LayeredMap<String, Object>(base);
+        map.put("c", 3);
+        for (Iterator<Map.Entry<String, Object>> it = map.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Object> entry = it.next();
+            if ("a".equals(entry.getKey())) {
+                entry.setValue(10);
+            } else if ("b".equals(entry.getKey())) {
+                it.remove();
+            }
+        }
+
+        assertEquals(10, map.get("a"));
+        assertFalse(map.containsKey("b"));
+        assertEquals(2, map.size());
+        assertTrue(map.values().remove(3));
+        assertFalse(map.containsKey("c"));
+        assertEquals(1, base.get("a"));
+        assertEquals(2, base.get("b"));
+    }
+}